@@ -48,7 +48,8 @@ public abstract class AbstractBufferedImageOp implements BufferedImageOp, Clonea
 
 	/**
 	 * A convenience method for getting ARGB pixels from an image. This tries to avoid the performance
-	 * penalty of BufferedImage.getRGB unmanaging the image.
+	 * penalty of BufferedImage.getRGB unmanaging the image, and reads the common image types
+	 * (INT_ARGB, INT_RGB, 3BYTE_BGR, 4BYTE_ABGR and BYTE_GRAY) straight from the raster.
      * @param image   a BufferedImage object
      * @param x       the left edge of the pixel block
      * @param y       the right edge of the pixel block
@@ -59,15 +60,13 @@ public abstract class AbstractBufferedImageOp implements BufferedImageOp, Clonea
      * @see #setRGB
      */
 	public int[] getRGB( BufferedImage image, int x, int y, int width, int height, int[] pixels ) {
-		int type = image.getType();
-		if ( type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB )
-			return (int [])image.getRaster().getDataElements( x, y, width, height, pixels );
-		return image.getRGB( x, y, width, height, pixels, 0, width );
+		return RasterPixels.getRGB( image, x, y, width, height, pixels );
     }
 
 	/**
 	 * A convenience method for setting ARGB pixels in an image. This tries to avoid the performance
-	 * penalty of BufferedImage.setRGB unmanaging the image.
+	 * penalty of BufferedImage.setRGB unmanaging the image, and writes the common image types
+	 * straight to the raster.
      * @param image   a BufferedImage object
      * @param x       the left edge of the pixel block
      * @param y       the right edge of the pixel block
@@ -77,11 +76,7 @@ public abstract class AbstractBufferedImageOp implements BufferedImageOp, Clonea
      * @see #getRGB
 	 */
 	public void setRGB( BufferedImage image, int x, int y, int width, int height, int[] pixels ) {
-		int type = image.getType();
-		if ( type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB )
-			image.getRaster().setDataElements( x, y, width, height, pixels );
-		else
-			image.setRGB( x, y, width, height, pixels, 0, width );
+		RasterPixels.setRGB( image, x, y, width, height, pixels );
     }
 
 	public Object clone() {
@@ -19,17 +19,21 @@ package com.jhlabs.image;
 import java.awt.*;
 import java.awt.image.*;
 import java.awt.geom.*;
+import java.util.concurrent.*;
 
 /**
  * A filter which performs a box blur on an image. The horizontal and vertical blurs can be specified separately
  * and a number of iterations can be given which allows an approximation to Gaussian blur.
+ * Each blur pass can be split into bands of rows which are run in parallel (see {@link #setParallel}),
+ * giving the same result as when running on one thread.
  */
-public class BoxBlurFilter extends AbstractBufferedImageOp {
+public class BoxBlurFilter extends AbstractBufferedImageOp implements ParallelFilter {
 
 	private float hRadius;
 	private float vRadius;
 	private int iterations = 1;
 	private boolean premultiplyAlpha = true;
+	private final RowBands.Settings parallelSettings = new RowBands.Settings();
 	
     /**
      * Construct a default BoxBlurFilter.
@@ -67,6 +71,10 @@ public class BoxBlurFilter extends AbstractBufferedImageOp {
 		return premultiplyAlpha;
 	}
 
+	public RowBands.Settings getParallelSettings() {
+		return parallelSettings;
+	}
+
 	public BufferedImage filter( BufferedImage src, BufferedImage dst ) {
         int width = src.getWidth();
         int height = src.getHeight();
@@ -78,14 +86,17 @@ public class BoxBlurFilter extends AbstractBufferedImageOp {
         int[] outPixels = new int[width*height];
         getRGB( src, 0, 0, width, height, inPixels );
 
+        Executor executor = parallelSettings.getBandExecutor();
+        int bandHeight = parallelSettings.getBandHeight();
+
         if ( premultiplyAlpha )
 			ImageMath.premultiply( inPixels, 0, inPixels.length );
 		for (int i = 0; i < iterations; i++ ) {
-            blur( inPixels, outPixels, width, height, hRadius );
-            blur( outPixels, inPixels, height, width, vRadius );
+            blur( inPixels, outPixels, width, height, hRadius, executor, bandHeight );
+            blur( outPixels, inPixels, height, width, vRadius, executor, bandHeight );
         }
-        blurFractional( inPixels, outPixels, width, height, hRadius );
-        blurFractional( outPixels, inPixels, height, width, vRadius );
+        blurFractional( inPixels, outPixels, width, height, hRadius, executor, bandHeight );
+        blurFractional( outPixels, inPixels, height, width, vRadius, executor, bandHeight );
         if ( premultiplyAlpha )
 			ImageMath.unpremultiply( inPixels, 0, inPixels.length );
 
@@ -102,17 +113,43 @@ public class BoxBlurFilter extends AbstractBufferedImageOp {
      * @param radius the radius of blur
      */
     public static void blur( int[] in, int[] out, int width, int height, float radius ) {
-        int widthMinus1 = width-1;
-        int r = (int)radius;
+        blur( in, out, width, height, radius, null, 0 );
+    }
+
+    /**
+     * Blur and transpose a block of ARGB pixels, splitting the rows into bands which are run on an executor.
+     * @param in the input pixels
+     * @param out the output pixels
+     * @param width the width of the pixel array
+     * @param height the height of the pixel array
+     * @param radius the radius of blur
+     * @param executor the executor to run the bands on, or null to run on the calling thread
+     * @param bandHeight the number of rows in each band
+     */
+    public static void blur( final int[] in, final int[] out, final int width, final int height, float radius, Executor executor, int bandHeight ) {
+        final int r = (int)radius;
         int tableSize = 2*r+1;
-        int divide[] = new int[256*tableSize];
+        final int divide[] = new int[256*tableSize];
 
         for ( int i = 0; i < 256*tableSize; i++ )
             divide[i] = i/tableSize;
 
-        int inIndex = 0;
+        if ( executor == null ) {
+            blur( in, out, width, height, r, divide, 0, height );
+            return;
+        }
+        RowBands.run( height, bandHeight, executor, new RowBands.Task() {
+            public void run( int y0, int y1 ) {
+                blur( in, out, width, height, r, divide, y0, y1 );
+            }
+        } );
+    }
+
+    private static void blur( int[] in, int[] out, int width, int height, int r, int[] divide, int y0, int y1 ) {
+        int widthMinus1 = width-1;
+        int inIndex = y0*width;
         
-        for ( int y = 0; y < height; y++ ) {
+        for ( int y = y0; y < y1; y++ ) {
             int outIndex = y;
             int ta = 0, tr = 0, tg = 0, tb = 0;
 
@@ -147,11 +184,38 @@ public class BoxBlurFilter extends AbstractBufferedImageOp {
     }
         
     public static void blurFractional( int[] in, int[] out, int width, int height, float radius ) {
-        radius -= (int)radius;
+        blurFractional( in, out, width, height, radius, null, 0 );
+    }
+
+    /**
+     * Blur and transpose a block of ARGB pixels by the fractional part of the radius, splitting the rows
+     * into bands which are run on an executor.
+     * @param in the input pixels
+     * @param out the output pixels
+     * @param width the width of the pixel array
+     * @param height the height of the pixel array
+     * @param radius the radius of blur
+     * @param executor the executor to run the bands on, or null to run on the calling thread
+     * @param bandHeight the number of rows in each band
+     */
+    public static void blurFractional( final int[] in, final int[] out, final int width, final int height, float radius, Executor executor, int bandHeight ) {
+        final float fraction = radius - (int)radius;
+        if ( executor == null ) {
+            blurFractional( in, out, width, height, fraction, 0, height );
+            return;
+        }
+        RowBands.run( height, bandHeight, executor, new RowBands.Task() {
+            public void run( int y0, int y1 ) {
+                blurFractional( in, out, width, height, fraction, y0, y1 );
+            }
+        } );
+    }
+
+    private static void blurFractional( int[] in, int[] out, int width, int height, float radius, int y0, int y1 ) {
         float f = 1.0f/(1+2*radius);
-        int inIndex = 0;
+        int inIndex = y0*width;
         
-        for ( int y = 0; y < height; y++ ) {
+        for ( int y = y0; y < y1; y++ ) {
             int outIndex = y;
 
             out[ outIndex ] = in[0];
@@ -20,6 +20,8 @@ import java.awt.image.*;
 
 /**
  * A BufferedImageOp which combines two other BufferedImageOps, one after the other.
+ * The intermediate image is whatever filter1 returns, so unlike a FilterPipeline each stage sees
+ * its input in the image's own type.
  */
 public class CompoundFilter extends AbstractBufferedImageOp {
 	private BufferedImageOp filter1;
@@ -0,0 +1,125 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.awt.image.*;
+
+/**
+ * A filter which folds a sequence of lookup table filters into a single set of tables, so that
+ * the whole sequence costs one pass over the image. The filters which can be folded are
+ * TransferFilter and its subclasses (GammaFilter, ContrastFilter, CurvesFilter etc.),
+ * PosterizeFilter, LevelsFilter and LookupFilter. The tables are taken from the filters
+ * when the CompoundTransferFilter is constructed, so later changes to them have no effect.
+ * FilterPipeline builds one of these for each run of two or more of these filters, and for
+ * every LevelsFilter.
+ */
+public class CompoundTransferFilter extends PointFilter {
+
+	private int[] rTable, gTable, bTable;
+	private int[] lookup;
+
+	/**
+     * Construct a CompoundTransferFilter.
+     * @param filters the filters, in the order they are to be applied
+     * @throws IllegalArgumentException if one of the filters can't be folded
+     */
+	public CompoundTransferFilter( BufferedImageOp[] filters ) {
+		canFilterIndexColorModel = true;
+		rTable = new int[256];
+		for ( int i = 0; i < 256; i++ )
+			rTable[i] = i;
+		gTable = rTable.clone();
+		bTable = rTable.clone();
+
+		for ( int i = 0; i < filters.length; i++ )
+			addFilter( filters[i] );
+	}
+
+	/**
+	 * Returns true if a filter can be folded into a CompoundTransferFilter.
+     * @param filter the filter
+     * @return true if the filter can be folded
+	 */
+	public static boolean canCompound( BufferedImageOp filter ) {
+		return filter instanceof TransferFilter || filter instanceof PosterizeFilter || filter instanceof LevelsFilter || filter instanceof LookupFilter;
+	}
+
+	private void addFilter( BufferedImageOp filter ) {
+		if ( filter instanceof LookupFilter ) {
+			// Lookup filters index a colormap by brightness, which can't be split into channels, so from here on
+			// we keep a table indexed by brightness and fold everything else into that
+			LookupFilter lf = (LookupFilter)filter;
+			int[] table = new int[256];
+			for ( int i = 0; i < 256; i++ )
+				table[i] = lf.filterRGB( 0, 0, 0xff000000 | (i << 16) | (i << 8) | i );
+			if ( lookup == null )
+				lookup = table;
+			else {
+				for ( int i = 0; i < 256; i++ )
+					lookup[i] = table[PixelUtils.brightness( lookup[i] )];
+			}
+			return;
+		}
+
+		int[][] tables;
+		if ( filter instanceof LevelsFilter )
+			tables = ((LevelsFilter)filter).makeLUT();
+		else if ( filter instanceof TransferFilter || filter instanceof PosterizeFilter ) {
+			PointFilter pf = (PointFilter)filter;
+			pf.setDimensions( 1, 1 );
+			tables = new int[3][256];
+			for ( int i = 0; i < 256; i++ ) {
+				int rgb = pf.filterRGB( 0, 0, 0xff000000 | (i << 16) | (i << 8) | i );
+				tables[0][i] = (rgb >> 16) & 0xff;
+				tables[1][i] = (rgb >> 8) & 0xff;
+				tables[2][i] = rgb & 0xff;
+			}
+		} else
+			throw new IllegalArgumentException( "Can't compound " + filter );
+
+		if ( lookup != null ) {
+			for ( int i = 0; i < 256; i++ ) {
+				int rgb = lookup[i];
+				int r = tables[0][(rgb >> 16) & 0xff];
+				int g = tables[1][(rgb >> 8) & 0xff];
+				int b = tables[2][rgb & 0xff];
+				lookup[i] = (rgb & 0xff000000) | (r << 16) | (g << 8) | b;
+			}
+		} else {
+			for ( int i = 0; i < 256; i++ ) {
+				rTable[i] = tables[0][rTable[i]];
+				gTable[i] = tables[1][gTable[i]];
+				bTable[i] = tables[2][bTable[i]];
+			}
+		}
+	}
+
+	public int filterRGB(int x, int y, int rgb) {
+		int a = rgb & 0xff000000;
+		int r = rTable[(rgb >> 16) & 0xff];
+		int g = gTable[(rgb >> 8) & 0xff];
+		int b = bTable[rgb & 0xff];
+		if ( lookup != null )
+			return lookup[(r + g + b) / 3];
+		return a | (r << 16) | (g << 8) | b;
+	}
+
+	public String toString() {
+		return "Colors/Compound Transfer";
+	}
+
+}
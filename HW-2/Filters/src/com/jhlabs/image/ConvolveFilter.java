@@ -236,8 +236,363 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
 			convolveH(kernel, inPixels, outPixels, width, height, alpha, edgeAction);
 		else if (kernel.getWidth() == 1)
 			convolveV(kernel, inPixels, outPixels, width, height, alpha, edgeAction);
-		else
+		else {
+			float[][] factors = separateKernel(kernel);
+			switch (chooseMethod(kernel, factors != null, width, height)) {
+			case SEPARABLE:
+				convolveSeparable(factors[0], factors[1], inPixels, outPixels, width, height, alpha, edgeAction);
+				break;
+			case FFT:
+				convolveFFT(kernel, inPixels, outPixels, width, height, alpha, edgeAction);
+				break;
+			default:
+				convolveHV(kernel, inPixels, outPixels, width, height, alpha, edgeAction);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Estimate which way of convolving an image with a 2D kernel will be quickest. The costs are in
+	 * rough units of one kernel tap per pixel: direct convolution costs one unit per non-zero element,
+	 * separable convolution one per row and column element plus a little for the intermediate image,
+	 * and FFT convolution costs four 2D FFTs per tile spread over the pixels the tile produces,
+	 * plus direct convolution of the border pixels which the FFT can't do.
+	 */
+	private static int chooseMethod(Kernel kernel, boolean separable, int width, int height) {
+		int rows = kernel.getHeight();
+		int cols = kernel.getWidth();
+		// Kernels with an even size don't have a centre, which the separable and FFT methods need
+		if ((rows & 1) == 0 || (cols & 1) == 0)
+			return DIRECT;
+
+		float[] matrix = kernel.getKernelData( null );
+		int taps = 0;
+		for (int i = 0; i < matrix.length; i++) {
+			if (matrix[i] != 0)
+				taps++;
+		}
+		float directCost = taps;
+		float separableCost = separable ? rows + cols + 2 : Float.MAX_VALUE;
+		float fftCost = Float.MAX_VALUE;
+
+		int tileSize = fftTileSize(rows, cols);
+		if (width > cols && height > rows) {
+			int logN = log2(tileSize);
+			float validArea = (tileSize-cols+1) * (tileSize-rows+1);
+			float perTile = FFT_COST * 4 * tileSize * tileSize * 2 * logN;
+			float area = (float)width * height;
+			float borderArea = area - (float)(width-cols+1) * (height-rows+1);
+			fftCost = perTile / validArea + directCost * borderArea / area;
+		}
+
+		if (separableCost <= directCost && separableCost <= fftCost)
+			return SEPARABLE;
+		if (fftCost < directCost)
+			return FFT;
+		return DIRECT;
+	}
+
+	private final static int DIRECT = 0;
+	private final static int SEPARABLE = 1;
+	private final static int FFT = 2;
+
+	/**
+	 * The cost of one FFT butterfly per element relative to one direct convolution tap, measured rather than derived.
+	 */
+	private final static float FFT_COST = 0.4f;
+
+	private static int fftTileSize(int rows, int cols) {
+		int size = 64;
+		while (size < 4*Math.max(rows, cols) && size < 1024)
+			size *= 2;
+		return size;
+	}
+
+	private static int log2(int n) {
+		int log2n = 0;
+		while ((1 << log2n) < n)
+			log2n++;
+		return log2n;
+	}
+
+	/**
+	 * Convolve with a 2D kernel using FFTs. The image is cut into overlapping square tiles, using the same
+	 * overlap scheme as LensBlurFilter, and each is convolved in frequency space. Pixels near the image edges
+	 * need pixels from off the edge, which convolveHV treats in ways the FFT can't reproduce, so those are
+	 * convolved directly. The results match convolveHV to within rounding. The kernel must have an odd width and height.
+     * @param kernel the kernel
+     * @param inPixels the input pixels
+     * @param outPixels the output pixels
+     * @param width the width
+     * @param height the height
+     * @param alpha include alpha channel
+     * @param edgeAction what to do at the edges
+	 */
+	public static void convolveFFT(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, int edgeAction) {
+		float[] matrix = kernel.getKernelData( null );
+		int rows = kernel.getHeight();
+		int cols = kernel.getWidth();
+		int rows2 = rows/2;
+		int cols2 = cols/2;
+
+		// The interior is the part of the image where the whole kernel lies inside the image
+		int ix0 = cols2, ix1 = width-cols2;
+		int iy0 = rows2, iy1 = height-rows2;
+		if (ix0 >= ix1 || iy0 >= iy1) {
 			convolveHV(kernel, inPixels, outPixels, width, height, alpha, edgeAction);
+			return;
+		}
+		convolveHV(kernel, inPixels, outPixels, width, height, alpha, edgeAction, 0, 0, width, iy0);
+		convolveHV(kernel, inPixels, outPixels, width, height, alpha, edgeAction, 0, iy1, width, height);
+		convolveHV(kernel, inPixels, outPixels, width, height, alpha, edgeAction, 0, iy0, ix0, iy1);
+		convolveHV(kernel, inPixels, outPixels, width, height, alpha, edgeAction, ix1, iy0, width, iy1);
+
+		int size = fftTileSize(rows, cols);
+		int logN = log2(size);
+		com.jhlabs.math.FFT fft = new com.jhlabs.math.FFT( logN );
+		int n = size*size;
+
+		// convolveHV actually correlates, so put the kernel in flipped and wrapped around the origin
+		float[][] mask = new float[2][n];
+		for (int row = -rows2; row <= rows2; row++) {
+			for (int col = -cols2; col <= cols2; col++) {
+				int my = (size-row) & (size-1);
+				int mx = (size-col) & (size-1);
+				mask[0][my*size+mx] = matrix[(row+rows2)*cols+col+cols2];
+			}
+		}
+		fft.transform2D( mask[0], mask[1], size, size, true );
+
+		// Alpha and red go in one complex array and green and blue in the other
+		float[][] ar = new float[2][n];
+		float[][] gb = new float[2][n];
+		int stepX = size-cols+1;
+		int stepY = size-rows+1;
+
+		for (int ty = iy0; ty < iy1; ty += stepY) {
+			for (int tx = ix0; tx < ix1; tx += stepX) {
+				// This tile produces the pixels from (tx, ty) to (ox1, oy1) and needs the input from (tx-cols2, ty-rows2)
+				int ox1 = Math.min(tx+stepX, ix1);
+				int oy1 = Math.min(ty+stepY, iy1);
+				int sx = tx-cols2;
+				int sy = ty-rows2;
+				int sw = ox1-tx+cols-1;
+				int sh = oy1-ty+rows-1;
+
+				for (int y = 0; y < size; y++) {
+					int i = y*size;
+					int ioffset = (sy+y)*width+sx;
+					for (int x = 0; x < size; x++, i++) {
+						if (x < sw && y < sh) {
+							int rgb = inPixels[ioffset+x];
+							ar[0][i] = (rgb >> 24) & 0xff;
+							ar[1][i] = (rgb >> 16) & 0xff;
+							gb[0][i] = (rgb >> 8) & 0xff;
+							gb[1][i] = rgb & 0xff;
+						} else
+							ar[0][i] = ar[1][i] = gb[0][i] = gb[1][i] = 0;
+					}
+				}
+
+				fft.transform2D( ar[0], ar[1], size, size, true );
+				fft.transform2D( gb[0], gb[1], size, size, true );
+
+				for (int i = 0; i < n; i++) {
+					float rem = mask[0][i];
+					float imm = mask[1][i];
+					float re = ar[0][i];
+					float im = ar[1][i];
+					ar[0][i] = re*rem-im*imm;
+					ar[1][i] = re*imm+im*rem;
+					re = gb[0][i];
+					im = gb[1][i];
+					gb[0][i] = re*rem-im*imm;
+					gb[1][i] = re*imm+im*rem;
+				}
+
+				fft.transform2D( ar[0], ar[1], size, size, false );
+				fft.transform2D( gb[0], gb[1], size, size, false );
+
+				for (int y = ty; y < oy1; y++) {
+					int i = (y-sy)*size+(tx-sx);
+					int index = y*width+tx;
+					for (int x = tx; x < ox1; x++, i++) {
+						int ia = alpha ? PixelUtils.clamp((int)(ar[0][i]+0.5)) : 0xff;
+						int ir = PixelUtils.clamp((int)(ar[1][i]+0.5));
+						int ig = PixelUtils.clamp((int)(gb[0][i]+0.5));
+						int ib = PixelUtils.clamp((int)(gb[1][i]+0.5));
+						outPixels[index++] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Split a kernel into a column and a row whose outer product is the kernel, if it has rank one.
+	 * Box, Gaussian and Sobel-style kernels are all like this. We take the row and column through the
+	 * largest element and check that their product reproduces every other element.
+     * @param kernel the kernel
+     * @return an array holding the column and the row, or null if the kernel isn't separable
+	 */
+	public static float[][] separateKernel(Kernel kernel) {
+		float[] matrix = kernel.getKernelData( null );
+		int rows = kernel.getHeight();
+		int cols = kernel.getWidth();
+
+		int pivot = 0;
+		for (int i = 1; i < matrix.length; i++) {
+			if (Math.abs(matrix[i]) > Math.abs(matrix[pivot]))
+				pivot = i;
+		}
+		float max = Math.abs(matrix[pivot]);
+		if (max == 0)
+			return null;
+
+		int prow = pivot / cols;
+		int pcol = pivot % cols;
+		float[] column = new float[rows];
+		float[] row = new float[cols];
+		for (int i = 0; i < rows; i++)
+			column[i] = matrix[i*cols+pcol];
+		for (int j = 0; j < cols; j++)
+			row[j] = matrix[prow*cols+j] / matrix[pivot];
+
+		float tolerance = max * 1e-5f;
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				if (Math.abs(matrix[i*cols+j] - column[i]*row[j]) > tolerance)
+					return null;
+			}
+		}
+		return new float[][] { column, row };
+	}
+
+	/**
+	 * Convolve with a separable 2D kernel, given as the column and row whose outer product is the kernel.
+	 * This is done as two one dimensional passes, each of which transposes the image as it goes in the same way
+	 * as GaussianFilter.convolveAndTranspose, so that both passes read along rows. The intermediate image is kept
+	 * as floats so that kernels with negative elements work. Off-edge pixels are treated in the same way as
+	 * convolveHV so the results match it to within rounding.
+     * @param column the kernel column
+     * @param row the kernel row
+     * @param inPixels the input pixels
+     * @param outPixels the output pixels
+     * @param width the width
+     * @param height the height
+     * @param alpha include alpha channel
+     * @param edgeAction what to do at the edges
+	 */
+	public static void convolveSeparable(float[] column, float[] row, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, int edgeAction) {
+		float[] transposed = new float[width*height*4];
+		convolveRowsAndTranspose(row, inPixels, transposed, width, height, edgeAction);
+		convolveColumnsAndTranspose(column, transposed, outPixels, height, width, alpha, edgeAction);
+	}
+
+	/**
+	 * Convolve each row of packed pixels with a one dimensional kernel, writing the channels as floats transposed.
+	 */
+	private static void convolveRowsAndTranspose(float[] taps, int[] inPixels, float[] outChannels, int width, int height, int edgeAction) {
+		int n = taps.length;
+		int cols2 = n/2;
+		// Between x0 and x1 every tap lands inside the row, so we don't need the edge checks
+		int x0 = Math.min(cols2, width);
+		int x1 = Math.max(x0, width-cols2);
+
+		for (int y = 0; y < height; y++) {
+			int ioffset = y*width;
+			int index = y*4;
+			for (int x = 0; x < width; x++) {
+				float r = 0, g = 0, b = 0, a = 0;
+				if (x >= x0 && x < x1) {
+					int i = ioffset+x-cols2;
+					for (int k = 0; k < n; k++) {
+						float f = taps[k];
+						int rgb = inPixels[i++];
+						a += f * ((rgb >> 24) & 0xff);
+						r += f * ((rgb >> 16) & 0xff);
+						g += f * ((rgb >> 8) & 0xff);
+						b += f * (rgb & 0xff);
+					}
+				} else {
+					for (int k = 0; k < n; k++) {
+						float f = taps[k];
+						int ix = x+k-cols2;
+						if (ix < 0 || ix >= width) {
+							// convolveHV uses the centre pixel for both clamping and wrapping along a row
+							if ( edgeAction == ZERO_EDGES )
+								continue;
+							ix = x;
+						}
+						int rgb = inPixels[ioffset+ix];
+						a += f * ((rgb >> 24) & 0xff);
+						r += f * ((rgb >> 16) & 0xff);
+						g += f * ((rgb >> 8) & 0xff);
+						b += f * (rgb & 0xff);
+					}
+				}
+				outChannels[index] = a;
+				outChannels[index+1] = r;
+				outChannels[index+2] = g;
+				outChannels[index+3] = b;
+				index += height*4;
+			}
+		}
+	}
+
+	/**
+	 * Convolve each row of float channels with a one dimensional kernel, writing packed pixels transposed.
+	 * The rows here are the columns of the original image.
+	 */
+	private static void convolveColumnsAndTranspose(float[] taps, float[] inChannels, int[] outPixels, int width, int height, boolean alpha, int edgeAction) {
+		int n = taps.length;
+		int rows2 = n/2;
+		int x0 = Math.min(rows2, width);
+		int x1 = Math.max(x0, width-rows2);
+
+		for (int y = 0; y < height; y++) {
+			int ioffset = y*width;
+			int index = y;
+			for (int x = 0; x < width; x++) {
+				float r = 0, g = 0, b = 0, a = 0;
+				if (x >= x0 && x < x1) {
+					int i = (ioffset+x-rows2)*4;
+					for (int k = 0; k < n; k++) {
+						float f = taps[k];
+						a += f * inChannels[i];
+						r += f * inChannels[i+1];
+						g += f * inChannels[i+2];
+						b += f * inChannels[i+3];
+						i += 4;
+					}
+				} else {
+					for (int k = 0; k < n; k++) {
+						float f = taps[k];
+						int ix = x+k-rows2;
+						if (ix < 0 || ix >= width) {
+							if ( edgeAction == CLAMP_EDGES )
+								ix = x;
+							else if ( edgeAction == WRAP_EDGES )
+								ix = (ix+width) % width;
+							else
+								continue;
+						}
+						int i = (ioffset+ix)*4;
+						a += f * inChannels[i];
+						r += f * inChannels[i+1];
+						g += f * inChannels[i+2];
+						b += f * inChannels[i+3];
+					}
+				}
+				int ia = alpha ? PixelUtils.clamp((int)(a+0.5)) : 0xff;
+				int ir = PixelUtils.clamp((int)(r+0.5));
+				int ig = PixelUtils.clamp((int)(g+0.5));
+				int ib = PixelUtils.clamp((int)(b+0.5));
+				outPixels[index] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+				index += height;
+			}
+		}
 	}
 	
 	/**
@@ -251,15 +606,33 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
      * @param edgeAction what to do at the edges
 	 */
 	public static void convolveHV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, int edgeAction) {
-		int index = 0;
+		convolveHV(kernel, inPixels, outPixels, width, height, alpha, edgeAction, 0, 0, width, height);
+	}
+
+	/**
+	 * Convolve part of an image with a 2D kernel.
+     * @param kernel the kernel
+     * @param inPixels the input pixels
+     * @param outPixels the output pixels
+     * @param width the width
+     * @param height the height
+     * @param alpha include alpha channel
+     * @param edgeAction what to do at the edges
+     * @param x0 the left of the part to convolve
+     * @param y0 the top of the part to convolve
+     * @param x1 the right of the part to convolve (exclusive)
+     * @param y1 the bottom of the part to convolve (exclusive)
+	 */
+	public static void convolveHV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, int edgeAction, int x0, int y0, int x1, int y1) {
 		float[] matrix = kernel.getKernelData( null );
 		int rows = kernel.getHeight();
 		int cols = kernel.getWidth();
 		int rows2 = rows/2;
 		int cols2 = cols/2;
 
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
+		for (int y = y0; y < y1; y++) {
+			int index = y*width+x0;
+			for (int x = x0; x < x1; x++) {
 				float r = 0, g = 0, b = 0, a = 0;
 
 				for (int row = -rows2; row <= rows2; row++) {
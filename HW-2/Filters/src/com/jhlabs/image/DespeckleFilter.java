@@ -39,6 +39,10 @@ public class DespeckleFilter extends WholeImageFilter {
 		return c;
 	}
 	
+	protected int getStripHalo() {
+		return 1;
+	}
+
 	protected int[] filterPixels( int width, int height, int[] inPixels, Rectangle transformedSpace ) {
 		int index = 0;
 		short[][] r = new short[3][width];
@@ -47,6 +47,10 @@ public class DilateFilter extends BinaryFilter {
 		return threshold;
 	}
 	
+	protected int getStripHalo() {
+		return iterations;
+	}
+
 	protected int[] filterPixels( int width, int height, int[] inPixels, Rectangle transformedSpace ) {
 		int[] outPixels = new int[width * height];
 
@@ -30,6 +30,7 @@ public class DissolveFilter extends PointFilter {
 	private Random randomNumbers;
 	
 	public DissolveFilter() {
+		canFilterInParallel = false;
 	}
 
 	/**
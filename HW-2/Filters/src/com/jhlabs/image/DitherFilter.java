@@ -251,10 +251,19 @@ public class DitherFilter extends PointFilter {
 		}
 	}
 
-	public int filterRGB(int x, int y, int rgb) {
+	public void setDimensions(int width, int height) {
+		// Initialize here rather than lazily in filterRGB so that parallel bands all see the tables
 		if (!initialized) {
+			initialize();
 			initialized = true;
+		}
+		super.setDimensions(width, height);
+	}
+
+	public int filterRGB(int x, int y, int rgb) {
+		if (!initialized) {
 			initialize();
+			initialized = true;
 		}
 		int a = rgb & 0xff000000;
 		int r = (rgb >> 16) & 0xff;
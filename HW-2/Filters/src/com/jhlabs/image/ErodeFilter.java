@@ -48,6 +48,10 @@ public class ErodeFilter extends BinaryFilter {
 		return threshold;
 	}
 	
+	protected int getStripHalo() {
+		return iterations;
+	}
+
 	protected int[] filterPixels( int width, int height, int[] inPixels, Rectangle transformedSpace ) {
 		int[] outPixels = new int[width * height];
 
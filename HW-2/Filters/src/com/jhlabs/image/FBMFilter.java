@@ -253,6 +253,8 @@ public class FBMFilter extends PointFilter implements Cloneable {
 	
 	public BufferedImage filter( BufferedImage src, BufferedImage dst ) {
 		fBm = makeFBM(H, lacunarity, octaves);
+		// The cellular basis, or one set with setBasis, may keep state between evaluations
+		canFilterInParallel = canEvaluateInParallel(basis);
 		return super.filter( src, dst );
 	}
 
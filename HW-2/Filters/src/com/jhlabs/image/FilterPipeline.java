@@ -0,0 +1,216 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * A BufferedImageOp which applies a list of other BufferedImageOps, one after the other.
+ * The source pixels are read once into an ARGB buffer which is passed from stage to stage,
+ * and only written back to an image at the end. Runs of adjacent point filters are fused
+ * into a single pass over the pixels, runs of lookup table filters (including LevelsFilter,
+ * which isn't a point filter) are folded into a single CompoundTransferFilter, and other whole
+ * image filters work on the buffer directly.
+ * Any other ops are given the buffer wrapped in a TYPE_INT_ARGB image, writing into a second
+ * buffer which is then swapped with the first.
+ * <p>
+ * Point filters and whole image filters are only handled specially if they don't override
+ * filter(), since those that do may rely on setting things up there.
+ * <p>
+ * Because the buffer stays ARGB from the first stage to the last, intermediate results are not
+ * reduced to the source's type or alpha between stages. The output can therefore differ from
+ * calling each filter's filter() in turn, as CompoundFilter does: a gray image keeps the full
+ * precision of each stage, and alpha set by one stage reaches the next.
+ */
+public class FilterPipeline extends AbstractBufferedImageOp {
+
+	private java.util.List<BufferedImageOp> filters = new ArrayList<BufferedImageOp>();
+
+	/**
+     * Construct an empty FilterPipeline.
+     */
+	public FilterPipeline() {
+	}
+
+	/**
+     * Construct a FilterPipeline.
+     * @param filters the filters, in the order they are to be applied
+     */
+	public FilterPipeline( BufferedImageOp[] filters ) {
+		for ( int i = 0; i < filters.length; i++ )
+			addFilter( filters[i] );
+	}
+
+	/**
+     * Add a filter to the end of the pipeline.
+     * @param filter the filter
+     */
+	public void addFilter( BufferedImageOp filter ) {
+		filters.add( filter );
+	}
+
+	/**
+     * Remove all the filters from the pipeline.
+     */
+	public void removeAllFilters() {
+		filters.clear();
+	}
+
+	/**
+     * Get the filters in the pipeline.
+     * @return the filters
+     */
+	public BufferedImageOp[] getFilters() {
+		return filters.toArray( new BufferedImageOp[filters.size()] );
+	}
+
+	public BufferedImage filter( BufferedImage src, BufferedImage dst ) {
+		int width = src.getWidth();
+		int height = src.getHeight();
+		int[] pixels = getRGB( src, 0, 0, width, height, null );
+		int[] spare = null;
+
+		int n = filters.size();
+		int i = 0;
+		while ( i < n ) {
+			BufferedImageOp filter = filters.get( i );
+			if ( isFusable( filter ) ) {
+				int j = i+1;
+				while ( j < n && isFusable( filters.get( j ) ) )
+					j++;
+				filterPoints( fold( filters.subList( i, j ) ), width, height, pixels );
+				i = j;
+				continue;
+			}
+
+			if ( inheritsFilter( filter, WholeImageFilter.class ) ) {
+				WholeImageFilter wf = (WholeImageFilter)filter;
+				wf.originalSpace = new Rectangle( 0, 0, width, height );
+				wf.transformedSpace = new Rectangle( 0, 0, width, height );
+				wf.transformSpace( wf.transformedSpace );
+				pixels = wf.filterPixels( width, height, pixels, wf.transformedSpace );
+				width = wf.transformedSpace.width;
+				height = wf.transformedSpace.height;
+				spare = null;
+			} else {
+				BufferedImage in = wrap( pixels, width, height );
+				Rectangle bounds = filter.getBounds2D( in ).getBounds();
+				BufferedImage out = null;
+				if ( bounds.width == width && bounds.height == height ) {
+					if ( spare == null || spare.length != pixels.length )
+						spare = new int[pixels.length];
+					out = wrap( spare, width, height );
+				}
+				BufferedImage result = filter.filter( in, out );
+				if ( result == out ) {
+					int[] t = pixels;
+					pixels = spare;
+					spare = t;
+				} else {
+					width = result.getWidth();
+					height = result.getHeight();
+					pixels = getRGB( result, 0, 0, width, height, null );
+					spare = null;
+				}
+			}
+			i++;
+		}
+
+		if ( dst == null ) {
+			ColorModel dstCM = src.getColorModel();
+			dst = new BufferedImage( dstCM, dstCM.createCompatibleWritableRaster( width, height ), dstCM.isAlphaPremultiplied(), null );
+		}
+		setRGB( dst, 0, 0, width, height, pixels );
+		return dst;
+	}
+
+	/**
+	 * Turn a run of fusable filters into point filters, folding each stretch of lookup table filters into one
+	 * CompoundTransferFilter. A stretch of one point filter is left as it is, but a LevelsFilter is always folded
+	 * since that is the only way to run it per pixel.
+	 */
+	private static PointFilter[] fold( java.util.List<BufferedImageOp> run ) {
+		java.util.List<PointFilter> points = new ArrayList<PointFilter>();
+		int n = run.size();
+		int i = 0;
+		while ( i < n ) {
+			int j = i;
+			while ( j < n && CompoundTransferFilter.canCompound( run.get( j ) ) )
+				j++;
+			if ( j > i+1 || ( j == i+1 && !( run.get( i ) instanceof PointFilter ) ) ) {
+				points.add( new CompoundTransferFilter( run.subList( i, j ).toArray( new BufferedImageOp[j-i] ) ) );
+				i = j;
+			} else {
+				points.add( (PointFilter)run.get( i ) );
+				i++;
+			}
+		}
+		return points.toArray( new PointFilter[points.size()] );
+	}
+
+	/**
+	 * Apply a run of point filters to the pixels in place, passing each pixel through all of them before moving on.
+	 */
+	private void filterPoints( PointFilter[] run, int width, int height, int[] pixels ) {
+		for ( int k = 0; k < run.length; k++ )
+			run[k].setDimensions( width, height );
+		int index = 0;
+		for ( int y = 0; y < height; y++ ) {
+			for ( int x = 0; x < width; x++ ) {
+				int rgb = pixels[index];
+				for ( int k = 0; k < run.length; k++ )
+					rgb = run[k].filterRGB( x, y, rgb );
+				pixels[index++] = rgb;
+			}
+		}
+	}
+
+	private static boolean isFusable( BufferedImageOp filter ) {
+		return inheritsFilter( filter, PointFilter.class ) || inheritsFilter( filter, TransferFilter.class )
+			|| ( filter instanceof LevelsFilter && inheritsFilter( filter, WholeImageFilter.class ) );
+	}
+
+	/**
+	 * Returns true if the filter is an instance of the given class and inherits its filter method from it unchanged.
+	 */
+	private static boolean inheritsFilter( BufferedImageOp filter, Class<?> c ) {
+		if ( !c.isInstance( filter ) )
+			return false;
+		try {
+			return filter.getClass().getMethod( "filter", BufferedImage.class, BufferedImage.class ).getDeclaringClass() == c;
+		}
+		catch ( NoSuchMethodException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * Wrap a pixel buffer in a TYPE_INT_ARGB image without copying it.
+	 */
+	private static BufferedImage wrap( int[] pixels, int width, int height ) {
+		DirectColorModel cm = (DirectColorModel)ColorModel.getRGBdefault();
+		DataBufferInt buffer = new DataBufferInt( pixels, width*height );
+		WritableRaster raster = Raster.createPackedRaster( buffer, width, height, width, cm.getMasks(), null );
+		return new BufferedImage( cm, raster, false, null );
+	}
+
+	public String toString() {
+		return "Pipeline";
+	}
+}
@@ -22,7 +22,13 @@ import java.awt.image.*;
 public class HSBAdjustFilter extends PointFilter {
 	
 	public float hFactor, sFactor, bFactor;
-	private float[] hsb = new float[3];
+
+	// Scratch space for filterRGB, one per thread so that bands can run in parallel without allocating per pixel
+	private final static ThreadLocal<float[]> hsbBuffer = new ThreadLocal<float[]>() {
+		protected float[] initialValue() {
+			return new float[3];
+		}
+	};
 	
 	public HSBAdjustFilter() {
 		this(0, 0, 0);
@@ -64,7 +70,7 @@ public class HSBAdjustFilter extends PointFilter {
 		int r = (rgb >> 16) & 0xff;
 		int g = (rgb >> 8) & 0xff;
 		int b = rgb & 0xff;
-		Color.RGBtoHSB(r, g, b, hsb);
+		float[] hsb = Color.RGBtoHSB(r, g, b, hsbBuffer.get());
 		hsb[0] += hFactor;
 		while (hsb[0] < 0)
 			hsb[0] += Math.PI*2;
@@ -39,10 +39,8 @@ public class HighPassFilter extends GaussianFilter {
         int[] outPixels = new int[width*height];
         src.getRGB( 0, 0, width, height, inPixels, 0, width );
 
-		if ( radius > 0 ) {
-			convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES);
-			convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES);
-		}
+		if ( radius > 0 )
+			blur( inPixels, outPixels, width, height );
 
         src.getRGB( 0, 0, width, height, outPixels, 0, width );
 
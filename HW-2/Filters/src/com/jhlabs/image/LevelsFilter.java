@@ -68,21 +68,11 @@ public class LevelsFilter extends WholeImageFilter {
 	protected int[] filterPixels( int width, int height, int[] inPixels, Rectangle transformedSpace ) {
 		Histogram histogram = new Histogram(inPixels, width, height, 0, width);
 
-		int i, j;
-
-		if (histogram.getNumSamples() > 0) {
-			float scale = 255.0f / histogram.getNumSamples();
-			lut = new int[3][256];
-
-            float low = lowLevel * 255;
-            float high = highLevel * 255;
-            if ( low == high )
-                high++;
-			for (i = 0; i < 3; i++) {
-				for (j = 0; j < 256; j++)
-					lut[i][j] = PixelUtils.clamp( (int)(255 * (lowOutputLevel + (highOutputLevel-lowOutputLevel) * (j-low)/(high-low))) );
-			}
-		} else
+		int i;
+
+		if (histogram.getNumSamples() > 0)
+			lut = makeLUT();
+		else
 			lut = null;
 
 		i = 0;
@@ -96,6 +86,24 @@ public class LevelsFilter extends WholeImageFilter {
 		return inPixels;
 	}
 
+	/**
+     * Make the lookup tables for the current levels.
+     * @return the red, green and blue tables
+     */
+	int[][] makeLUT() {
+		int[][] lut = new int[3][256];
+
+        float low = lowLevel * 255;
+        float high = highLevel * 255;
+        if ( low == high )
+            high++;
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 256; j++)
+				lut[i][j] = PixelUtils.clamp( (int)(255 * (lowOutputLevel + (highOutputLevel-lowOutputLevel) * (j-low)/(high-low))) );
+		}
+		return lut;
+	}
+
 	public int filterRGB(int x, int y, int rgb) {
 		if (lut != null) {
 			int a = rgb & 0xff000000;
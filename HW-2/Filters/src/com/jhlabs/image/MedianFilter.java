@@ -18,15 +18,47 @@ package com.jhlabs.image;
 
 import java.awt.*;
 import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
- * A filter which performs a 3x3 median operation. Useful for removing dust and noise.
+ * A filter which performs a median operation. Useful for removing dust and noise.
+ * With a radius of 1 (the default) each pixel is replaced by the vector median of its 3x3 neighbourhood, the
+ * neighbour whose color is closest to all the others. Larger radii take the median of each channel separately,
+ * using column histograms (Perreault and Hebert) so that the cost per pixel doesn't grow with the radius.
+ * Bands of rows can be filtered in parallel (see {@link #setParallel}), giving the same result as one thread.
  */
-public class MedianFilter extends WholeImageFilter {
+public class MedianFilter extends WholeImageFilter implements ParallelFilter {
+
+	private int radius = 1;
+	private final RowBands.Settings parallelSettings = new RowBands.Settings();
 
 	public MedianFilter() {
 	}
 
+	/**
+	 * Set the radius of the neighbourhood.
+	 * @param radius the radius
+     * @min-value 1
+     * @see #getRadius
+	 */
+	public void setRadius( int radius ) {
+		this.radius = radius;
+	}
+
+	/**
+	 * Get the radius of the neighbourhood.
+	 * @return the radius
+     * @see #setRadius
+	 */
+	public int getRadius() {
+		return radius;
+	}
+
+	public RowBands.Settings getParallelSettings() {
+		return parallelSettings;
+	}
+
 	private int median(int[] array) {
 		int max, maxIndex;
 		
@@ -67,15 +99,55 @@ public class MedianFilter extends WholeImageFilter {
 		return index;
 	}
 
-	protected int[] filterPixels( int width, int height, int[] inPixels, Rectangle transformedSpace ) {
-		int index = 0;
+	protected int getStripHalo() {
+		return Math.max( radius, 1 );
+	}
+
+	protected int[] filterPixels( final int width, final int height, final int[] inPixels, Rectangle transformedSpace ) {
+		final int[] outPixels = new int[width * height];
+		Executor executor = parallelSettings.getBandExecutor();
+		int bands = parallelSettings.getParallel() ? parallelSettings.getBandHeight() : height;
+
+		if ( radius <= 1 ) {
+			RowBands.run( height, bands, executor, new RowBands.Task() {
+				public void run( int y0, int y1 ) {
+					vectorMedian( inPixels, outPixels, width, height, y0, y1 );
+				}
+			} );
+			return outPixels;
+		}
+
+		// Each channel as a plane of bytes: alpha, red, green, blue
+		final byte[][] planes = new byte[4][width * height];
+		for ( int i = 0; i < inPixels.length; i++ ) {
+			int argb = inPixels[i];
+			planes[0][i] = (byte)(argb >> 24);
+			planes[1][i] = (byte)(argb >> 16);
+			planes[2][i] = (byte)(argb >> 8);
+			planes[3][i] = (byte)argb;
+		}
+		RowBands.run( height, bands, executor, new RowBands.Task() {
+			public void run( int y0, int y1 ) {
+				byte[] median = new byte[width * (y1 - y0)];
+				for ( int channel = 0; channel < 4; channel++ ) {
+					channelMedian( planes[channel], median, width, height, radius, y0, y1 );
+					int shift = 24 - 8 * channel;
+					for ( int i = 0, index = y0 * width; i < median.length; i++, index++ )
+						outPixels[index] |= (median[i] & 0xff) << shift;
+				}
+			}
+		} );
+		return outPixels;
+	}
+
+	private void vectorMedian( int[] inPixels, int[] outPixels, int width, int height, int y0, int y1 ) {
+		int index = y0 * width;
 		int[] argb = new int[9];
 		int[] r = new int[9];
 		int[] g = new int[9];
 		int[] b = new int[9];
-		int[] outPixels = new int[width * height];
 
-		for (int y = 0; y < height; y++) {
+		for (int y = y0; y < y1; y++) {
 			for (int x = 0; x < width; x++) {
 				int k = 0;
 				for (int dy = -1; dy <= 1; dy++) {
@@ -103,7 +175,92 @@ public class MedianFilter extends WholeImageFilter {
 				outPixels[index++] = argb[rgbMedian(r, g, b)];
 			}
 		}
-		return outPixels;
+	}
+
+	/**
+	 * Median filter rows y0 to y1 of one channel into out, which holds just those rows. Every column keeps a
+	 * histogram of the rows around the current one, and the window histogram slides along the row by adding and
+	 * removing whole column histograms. Histograms have 16 coarse bins of 16 levels, and the fine counts of a coarse
+	 * bin are only brought up to date when the median falls in it. Near the edges the window only covers pixels
+	 * inside the image, and the median is the upper one when the count is even.
+	 * The HW-2 Filters.medianFilter has a copy of this for grayscale planes; fix both together.
+	 */
+	private static void channelMedian( byte[] in, byte[] out, int width, int height, int radius, int y0, int y1 ) {
+		short[] columnFine = new short[width * 256];
+		short[] columnCoarse = new short[width * 16];
+		for ( int y = Math.max( y0 - radius, 0 ); y <= Math.min( y0 + radius, height - 1 ); y++ )
+			addRow( in, width, y, columnFine, columnCoarse, 1 );
+
+		int[] coarse = new int[16];
+		int[] fine = new int[256];
+		int[] fineColumn = new int[16];
+		for ( int y = y0; y < y1; y++ ) {
+			if ( y > y0 ) {
+				if ( y - radius - 1 >= 0 )
+					addRow( in, width, y - radius - 1, columnFine, columnCoarse, -1 );
+				if ( y + radius < height )
+					addRow( in, width, y + radius, columnFine, columnCoarse, 1 );
+			}
+			int rows = Math.min( y + radius, height - 1 ) - Math.max( y - radius, 0 ) + 1;
+
+			Arrays.fill( coarse, 0 );
+			// Far enough back that the first use of each bin rebuilds it
+			Arrays.fill( fineColumn, -2 * radius - 2 );
+			for ( int x = 0; x <= Math.min( radius, width - 1 ); x++ )
+				addHistogram( columnCoarse, x * 16, coarse, 0, 16, 1 );
+			for ( int x = 0; x < width; x++ ) {
+				if ( x > 0 ) {
+					if ( x + radius < width )
+						addHistogram( columnCoarse, (x + radius) * 16, coarse, 0, 16, 1 );
+					if ( x - radius - 1 >= 0 )
+						addHistogram( columnCoarse, (x - radius - 1) * 16, coarse, 0, 16, -1 );
+				}
+				int count = (Math.min( x + radius, width - 1 ) - Math.max( x - radius, 0 ) + 1) * rows;
+
+				int target = count / 2;
+				int bin = 0;
+				while ( target >= coarse[bin] )
+					target -= coarse[bin++];
+				updateFine( columnFine, fine, fineColumn, bin, x, width, radius );
+				int level = bin * 16;
+				while ( target >= fine[level] )
+					target -= fine[level++];
+				out[(y - y0) * width + x] = (byte)level;
+			}
+		}
+	}
+
+	private static void updateFine( short[] columnFine, int[] fine, int[] fineColumn, int bin, int x, int width, int radius ) {
+		int offset = bin * 16;
+		int last = fineColumn[bin];
+		if ( last == x )
+			return;
+		if ( x - last > 2 * radius + 1 ) {
+			Arrays.fill( fine, offset, offset + 16, 0 );
+			for ( int column = Math.max( x - radius, 0 ); column <= Math.min( x + radius, width - 1 ); column++ )
+				addHistogram( columnFine, column * 256 + offset, fine, offset, 16, 1 );
+		} else {
+			for ( int position = last + 1; position <= x; position++ ) {
+				if ( position + radius < width )
+					addHistogram( columnFine, (position + radius) * 256 + offset, fine, offset, 16, 1 );
+				if ( position - radius - 1 >= 0 )
+					addHistogram( columnFine, (position - radius - 1) * 256 + offset, fine, offset, 16, -1 );
+			}
+		}
+		fineColumn[bin] = x;
+	}
+
+	private static void addRow( byte[] in, int width, int y, short[] columnFine, short[] columnCoarse, int delta ) {
+		for ( int x = 0, index = y * width; x < width; x++, index++ ) {
+			int value = in[index] & 0xff;
+			columnFine[x * 256 + value] += delta;
+			columnCoarse[x * 16 + (value >> 4)] += delta;
+		}
+	}
+
+	private static void addHistogram( short[] column, int columnOffset, int[] histogram, int offset, int length, int delta ) {
+		for ( int i = 0; i < length; i++ )
+			histogram[offset + i] += delta * column[columnOffset + i];
 	}
 
 	public String toString() {
@@ -27,6 +27,10 @@ public class MinimumFilter extends WholeImageFilter {
 	public MinimumFilter() {
 	}
 	
+	protected int getStripHalo() {
+		return 1;
+	}
+
 	protected int[] filterPixels( int width, int height, int[] inPixels, Rectangle transformedSpace ) {
 		int index = 0;
 		int[] outPixels = new int[width * height];
@@ -41,6 +41,7 @@ public class NoiseFilter extends PointFilter {
 	private Random randomNumbers = new Random();
 	
 	public NoiseFilter() {
+		canFilterInParallel = false;
 	}
 
 	/**
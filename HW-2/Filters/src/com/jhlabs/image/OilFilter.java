@@ -66,6 +66,10 @@ public class OilFilter extends WholeImageFilter {
 		return levels;
 	}
 	
+	protected int getStripHalo() {
+		return range;
+	}
+
 	protected int[] filterPixels( int width, int height, int[] inPixels, Rectangle transformedSpace ) {
 		int index = 0;
 		int[] rHistogram = new int[levels];
@@ -28,6 +28,10 @@ public class OutlineFilter extends BinaryFilter {
 		newColor = 0xffffffff;
 	}
 
+	protected int getStripHalo() {
+		return 1;
+	}
+
 	protected int[] filterPixels( int width, int height, int[] inPixels, Rectangle transformedSpace ) {
 		int index = 0;
 		int[] outPixels = new int[width * height];
@@ -0,0 +1,106 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.util.concurrent.*;
+
+/**
+ * A filter which can split its work into bands of rows and run them in parallel. The result is the same
+ * as when running on one thread. The accessors here all read and write the filter's RowBands.Settings.
+ * @see RowBands.Settings
+ */
+public interface ParallelFilter {
+
+	/**
+	 * Get the parallel settings of the filter.
+	 * @return the settings
+	 */
+	public RowBands.Settings getParallelSettings();
+
+	/**
+	 * Set whether the filter runs in parallel over bands of rows.
+	 * @param parallel true to filter in parallel
+     * @see #getParallel
+	 */
+	public default void setParallel( boolean parallel ) {
+		getParallelSettings().setParallel( parallel );
+	}
+
+	/**
+	 * Get whether the filter runs in parallel over bands of rows.
+	 * @return true if the filter runs in parallel
+     * @see #setParallel
+	 */
+	public default boolean getParallel() {
+		return getParallelSettings().getParallel();
+	}
+
+	/**
+	 * Set the number of rows in each band when filtering in parallel.
+	 * @param bandHeight the band height
+     * @min-value 1
+     * @see #getBandHeight
+	 */
+	public default void setBandHeight( int bandHeight ) {
+		getParallelSettings().setBandHeight( bandHeight );
+	}
+
+	/**
+	 * Get the number of rows in each band when filtering in parallel.
+	 * @return the band height
+     * @see #setBandHeight
+	 */
+	public default int getBandHeight() {
+		return getParallelSettings().getBandHeight();
+	}
+
+	/**
+	 * Set the number of threads used when filtering in parallel. This is ignored if an executor has been set.
+	 * @param threadCount the number of threads, or 0 to use the common ForkJoinPool
+     * @see #getThreadCount
+	 */
+	public default void setThreadCount( int threadCount ) {
+		getParallelSettings().setThreadCount( threadCount );
+	}
+
+	/**
+	 * Get the number of threads used when filtering in parallel.
+	 * @return the number of threads
+     * @see #setThreadCount
+	 */
+	public default int getThreadCount() {
+		return getParallelSettings().getThreadCount();
+	}
+
+	/**
+	 * Set the executor used when filtering in parallel.
+	 * @param executor the executor, or null to use a ForkJoinPool with the thread count
+     * @see #getExecutor
+	 */
+	public default void setExecutor( Executor executor ) {
+		getParallelSettings().setExecutor( executor );
+	}
+
+	/**
+	 * Get the executor used when filtering in parallel.
+	 * @return the executor
+     * @see #setExecutor
+	 */
+	public default Executor getExecutor() {
+		return getParallelSettings().getExecutor();
+	}
+}
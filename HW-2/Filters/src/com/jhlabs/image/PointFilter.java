@@ -17,47 +17,86 @@ limitations under the License.
 package com.jhlabs.image;
 
 import java.awt.image.*;
+import com.jhlabs.math.*;
 
 /**
  * An abstract superclass for point filters. The interface is the same as the old RGBImageFilter.
+ * <p>
+ * Point filters can optionally run in parallel, splitting the image into horizontal bands of rows.
+ * In that case setDimensions is still called once, on the calling thread, before any rows are filtered,
+ * but filterRGB may then be called from several threads at once. Subclasses must therefore only read
+ * their fields in filterRGB, keeping any per-image state set up in setDimensions or filter. Subclasses
+ * which can't do that (for example because they draw from a shared random number generator) should
+ * set canFilterInParallel to false, and will then always run on the calling thread.
  */
-public abstract class PointFilter extends AbstractBufferedImageOp {
+public abstract class PointFilter extends AbstractBufferedImageOp implements ParallelFilter {
 
 	protected boolean canFilterIndexColorModel = false;
+	protected boolean canFilterInParallel = true;
+
+	private final RowBands.Settings parallelSettings = new RowBands.Settings();
+
+	public RowBands.Settings getParallelSettings() {
+		return parallelSettings;
+	}
 
     public BufferedImage filter( BufferedImage src, BufferedImage dst ) {
         int width = src.getWidth();
         int height = src.getHeight();
-		int type = src.getType();
-		WritableRaster srcRaster = src.getRaster();
 
         if ( dst == null )
             dst = createCompatibleDestImage( src, null );
-		WritableRaster dstRaster = dst.getRaster();
 
         setDimensions( width, height);
 
-		int[] inPixels = new int[width];
-        for ( int y = 0; y < height; y++ ) {
-			// We try to avoid calling getRGB on images as it causes them to become unmanaged, causing horrible performance problems.
-			if ( type == BufferedImage.TYPE_INT_ARGB ) {
-				srcRaster.getDataElements( 0, y, width, 1, inPixels );
-				for ( int x = 0; x < width; x++ )
-					inPixels[x] = filterRGB( x, y, inPixels[x] );
-				dstRaster.setDataElements( 0, y, width, 1, inPixels );
-			} else {
-				src.getRGB( 0, y, width, 1, inPixels, 0, width );
-				for ( int x = 0; x < width; x++ )
-					inPixels[x] = filterRGB( x, y, inPixels[x] );
-				dst.setRGB( 0, y, width, 1, inPixels, 0, width );
-			}
-        }
+		if ( parallelSettings.getParallel() && canFilterInParallel ) {
+			final BufferedImage fsrc = src, fdst = dst;
+			RowBands.run( height, parallelSettings.getBandHeight(), parallelSettings.getBandExecutor(), new RowBands.Task() {
+				public void run( int y0, int y1 ) {
+					filterRows( fsrc, fdst, y0, y1 );
+				}
+			} );
+		} else
+			filterRows( src, dst, 0, height );
 
         return dst;
     }
 
+	/**
+	 * Filter a range of rows of the source into the destination.
+	 * @param src the source image
+	 * @param dst the destination image
+	 * @param y0 the first row
+	 * @param y1 one past the last row
+	 */
+	protected void filterRows( BufferedImage src, BufferedImage dst, int y0, int y1 ) {
+        int width = src.getWidth();
+
+		int[] inPixels = new int[width];
+        for ( int y = y0; y < y1; y++ ) {
+			// We try to avoid calling BufferedImage.getRGB as it causes images to become unmanaged, causing horrible performance problems.
+			getRGB( src, 0, y, width, 1, inPixels );
+			for ( int x = 0; x < width; x++ )
+				inPixels[x] = filterRGB( x, y, inPixels[x] );
+			setRGB( dst, 0, y, width, 1, inPixels );
+        }
+    }
+
 	public void setDimensions(int width, int height) {
 	}
 
+	/**
+	 * Find out whether a function can be evaluated from several threads at once. Only the noise functions in
+	 * com.jhlabs.math are known to be safe; CellularFunction2D, for example, keeps its nearest points in shared arrays.
+	 * Filters which evaluate a settable function can use this to decide canFilterInParallel.
+	 * @param function the function
+	 * @return true if the function is known to be safe to evaluate in parallel
+	 */
+	protected static boolean canEvaluateInParallel( Function2D function ) {
+		if ( function instanceof FBM )
+			return canEvaluateInParallel( ((FBM)function).getBasisType() );
+		return function instanceof Noise || function instanceof RidgedFBM || function instanceof VLNoise || function instanceof SCNoise;
+	}
+
 	public abstract int filterRGB(int x, int y, int rgb);
 }
@@ -26,7 +26,6 @@ public class PosterizeFilter extends PointFilter {
 
 	private int numLevels;
 	private int[] levels;
-    private boolean initialized = false;
 
 	public PosterizeFilter() {
 		setNumLevels(6);
@@ -39,7 +38,8 @@ public class PosterizeFilter extends PointFilter {
      */
     public void setNumLevels(int numLevels) {
 		this.numLevels = numLevels;
-		initialized = false;
+		// Build the table now, so that bands filtered in parallel only ever read it
+		initialize();
 	}
 
 	/**
@@ -55,17 +55,14 @@ public class PosterizeFilter extends PointFilter {
      * Initialize the filter.
      */
     protected void initialize() {
-		levels = new int[256];
+		int[] levels = new int[256];
 		if (numLevels != 1)
 			for (int i = 0; i < 256; i++)
 				levels[i] = 255 * (numLevels*i / 256) / (numLevels-1);
+		this.levels = levels;
 	}
 	
 	public int filterRGB(int x, int y, int rgb) {
-		if (!initialized) {
-			initialized = true;
-			initialize();
-		}
 		int a = rgb & 0xff000000;
 		int r = (rgb >> 16) & 0xff;
 		int g = (rgb >> 8) & 0xff;
@@ -0,0 +1,178 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.awt.image.*;
+
+/**
+ * Packs and unpacks ARGB pixels for the common BufferedImage types by going through the raster's
+ * data elements rather than BufferedImage.getRGB and setRGB. This avoids a color model conversion per pixel
+ * and doesn't cause the image to become unmanaged. The results are the same as BufferedImage.getRGB and setRGB.
+ * Images of other types fall back to BufferedImage.getRGB and setRGB.
+ */
+public class RasterPixels {
+
+	private static int[] grayToRGB;
+	private static byte[] rgbToGray;
+
+	private RasterPixels() {
+	}
+
+	/**
+	 * Get ARGB pixels from an image.
+     * @param image   a BufferedImage object
+     * @param x       the left edge of the pixel block
+     * @param y       the top edge of the pixel block
+     * @param width   the width of the pixel arry
+     * @param height  the height of the pixel arry
+     * @param pixels  the array to hold the returned pixels. May be null.
+     * @return the pixels
+	 */
+	public static int[] getRGB( BufferedImage image, int x, int y, int width, int height, int[] pixels ) {
+		int n = width * height;
+		WritableRaster raster = image.getRaster();
+		switch ( image.getType() ) {
+		case BufferedImage.TYPE_INT_ARGB:
+			return (int[])raster.getDataElements( x, y, width, height, pixels );
+
+		case BufferedImage.TYPE_INT_RGB:
+			pixels = (int[])raster.getDataElements( x, y, width, height, pixels );
+			for ( int i = 0; i < n; i++ )
+				pixels[i] |= 0xff000000;
+			return pixels;
+
+		case BufferedImage.TYPE_3BYTE_BGR: {
+			// The data elements come out in band order, which is R, G, B
+			byte[] data = (byte[])raster.getDataElements( x, y, width, height, null );
+			if ( pixels == null )
+				pixels = new int[n];
+			for ( int i = 0, j = 0; i < n; i++, j += 3 )
+				pixels[i] = 0xff000000 | ((data[j] & 0xff) << 16) | ((data[j+1] & 0xff) << 8) | (data[j+2] & 0xff);
+			return pixels;
+		}
+
+		case BufferedImage.TYPE_4BYTE_ABGR: {
+			// R, G, B, A
+			byte[] data = (byte[])raster.getDataElements( x, y, width, height, null );
+			if ( pixels == null )
+				pixels = new int[n];
+			for ( int i = 0, j = 0; i < n; i++, j += 4 )
+				pixels[i] = ((data[j+3] & 0xff) << 24) | ((data[j] & 0xff) << 16) | ((data[j+1] & 0xff) << 8) | (data[j+2] & 0xff);
+			return pixels;
+		}
+
+		case BufferedImage.TYPE_BYTE_GRAY: {
+			byte[] data = (byte[])raster.getDataElements( x, y, width, height, null );
+			int[] lut = getGrayToRGB();
+			if ( pixels == null )
+				pixels = new int[n];
+			for ( int i = 0; i < n; i++ )
+				pixels[i] = lut[data[i] & 0xff];
+			return pixels;
+		}
+		}
+		return image.getRGB( x, y, width, height, pixels, 0, width );
+	}
+
+	/**
+	 * Set ARGB pixels in an image.
+     * @param image   a BufferedImage object
+     * @param x       the left edge of the pixel block
+     * @param y       the top edge of the pixel block
+     * @param width   the width of the pixel arry
+     * @param height  the height of the pixel arry
+     * @param pixels  the array of pixels to set
+	 */
+	public static void setRGB( BufferedImage image, int x, int y, int width, int height, int[] pixels ) {
+		int n = width * height;
+		WritableRaster raster = image.getRaster();
+		switch ( image.getType() ) {
+		case BufferedImage.TYPE_INT_ARGB:
+		case BufferedImage.TYPE_INT_RGB:
+			raster.setDataElements( x, y, width, height, pixels );
+			return;
+
+		case BufferedImage.TYPE_3BYTE_BGR: {
+			byte[] data = new byte[n*3];
+			for ( int i = 0, j = 0; i < n; i++, j += 3 ) {
+				int rgb = pixels[i];
+				data[j] = (byte)(rgb >> 16);
+				data[j+1] = (byte)(rgb >> 8);
+				data[j+2] = (byte)rgb;
+			}
+			raster.setDataElements( x, y, width, height, data );
+			return;
+		}
+
+		case BufferedImage.TYPE_4BYTE_ABGR: {
+			byte[] data = new byte[n*4];
+			for ( int i = 0, j = 0; i < n; i++, j += 4 ) {
+				int rgb = pixels[i];
+				data[j] = (byte)(rgb >> 16);
+				data[j+1] = (byte)(rgb >> 8);
+				data[j+2] = (byte)rgb;
+				data[j+3] = (byte)(rgb >> 24);
+			}
+			raster.setDataElements( x, y, width, height, data );
+			return;
+		}
+
+		case BufferedImage.TYPE_BYTE_GRAY: {
+			// Gray pixels go through a table; anything else needs the color model's conversion to linear gray
+			byte[] data = new byte[n];
+			byte[] lut = getRGBToGray();
+			ColorModel cm = image.getColorModel();
+			byte[] element = new byte[1];
+			for ( int i = 0; i < n; i++ ) {
+				int rgb = pixels[i];
+				int r = (rgb >> 16) & 0xff;
+				int g = (rgb >> 8) & 0xff;
+				int b = rgb & 0xff;
+				if ( r == g && g == b )
+					data[i] = lut[b];
+				else
+					data[i] = ((byte[])cm.getDataElements( rgb, element ))[0];
+			}
+			raster.setDataElements( x, y, width, height, data );
+			return;
+		}
+		}
+		image.setRGB( x, y, width, height, pixels, 0, width );
+	}
+
+	private static synchronized int[] getGrayToRGB() {
+		if ( grayToRGB == null ) {
+			ColorModel cm = new BufferedImage( 1, 1, BufferedImage.TYPE_BYTE_GRAY ).getColorModel();
+			int[] lut = new int[256];
+			for ( int i = 0; i < 256; i++ )
+				lut[i] = cm.getRGB( new byte[] { (byte)i } );
+			grayToRGB = lut;
+		}
+		return grayToRGB;
+	}
+
+	private static synchronized byte[] getRGBToGray() {
+		if ( rgbToGray == null ) {
+			ColorModel cm = new BufferedImage( 1, 1, BufferedImage.TYPE_BYTE_GRAY ).getColorModel();
+			byte[] lut = new byte[256];
+			for ( int i = 0; i < 256; i++ )
+				lut[i] = ((byte[])cm.getDataElements( 0xff000000 | (i << 16) | (i << 8) | i, null ))[0];
+			rgbToGray = lut;
+		}
+		return rgbToGray;
+	}
+}
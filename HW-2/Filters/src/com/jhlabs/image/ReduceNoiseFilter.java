@@ -50,6 +50,10 @@ public class ReduceNoiseFilter extends WholeImageFilter {
 		return v[4];
 	}
 
+	protected int getStripHalo() {
+		return 1;
+	}
+
 	protected int[] filterPixels( int width, int height, int[] inPixels, Rectangle transformedSpace ) {
 		int index = 0;
 		int[] r = new int[9];
@@ -0,0 +1,165 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A utility for running a row-oriented image operation over horizontal bands of rows in parallel.
+ * Each band is handed to a Task on an Executor and the caller waits until every band has finished,
+ * so the operation looks synchronous to the caller.
+ */
+public class RowBands {
+
+	/**
+	 * The default number of rows in a band.
+	 */
+	public final static int DEFAULT_BAND_HEIGHT = 64;
+
+	private static Map<Integer, ForkJoinPool> pools = new HashMap<Integer, ForkJoinPool>();
+
+	/**
+	 * A piece of work covering a range of rows.
+	 */
+	public interface Task {
+		/**
+		 * Process rows y0 (inclusive) to y1 (exclusive). Tasks for different bands may run at the same time.
+		 * @param y0 the first row
+		 * @param y1 one past the last row
+		 */
+		public void run( int y0, int y1 );
+	}
+
+	/**
+	 * The parallel settings of a filter: whether it runs in bands at all, how tall the bands are and
+	 * what they run on. Filters which can run in bands hold one of these and implement ParallelFilter,
+	 * which documents each setting.
+	 * @see ParallelFilter
+	 */
+	public static class Settings {
+		private boolean parallel = false;
+		private int bandHeight = DEFAULT_BAND_HEIGHT;
+		private int threadCount = 0;
+		private Executor executor = null;
+
+		public void setParallel( boolean parallel ) {
+			this.parallel = parallel;
+		}
+
+		public boolean getParallel() {
+			return parallel;
+		}
+
+		public void setBandHeight( int bandHeight ) {
+			this.bandHeight = bandHeight;
+		}
+
+		public int getBandHeight() {
+			return bandHeight;
+		}
+
+		public void setThreadCount( int threadCount ) {
+			this.threadCount = threadCount;
+		}
+
+		public int getThreadCount() {
+			return threadCount;
+		}
+
+		public void setExecutor( Executor executor ) {
+			this.executor = executor;
+		}
+
+		public Executor getExecutor() {
+			return executor;
+		}
+
+		/**
+		 * Get the executor the bands should actually run on.
+		 * @return the executor set, or a pool with the thread count, or null if not running in parallel
+		 */
+		public Executor getBandExecutor() {
+			if ( !parallel )
+				return null;
+			return executor != null ? executor : RowBands.getExecutor( threadCount );
+		}
+	}
+
+	private RowBands() {
+	}
+
+	/**
+	 * Get an executor with the given number of threads. Pools are shared between all callers asking for
+	 * the same number of threads.
+	 * @param threadCount the number of threads, or 0 to use the common ForkJoinPool
+	 * @return the executor
+	 */
+	public static Executor getExecutor( int threadCount ) {
+		if ( threadCount <= 0 )
+			return ForkJoinPool.commonPool();
+		synchronized ( pools ) {
+			ForkJoinPool pool = pools.get( threadCount );
+			if ( pool == null ) {
+				pool = new ForkJoinPool( threadCount );
+				pools.put( threadCount, pool );
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * Run a task over rows 0 to height, split into bands of bandHeight rows.
+	 * If there is only one band, the task is run on the calling thread.
+	 * @param height the number of rows
+	 * @param bandHeight the number of rows in each band
+	 * @param executor the executor to run the bands on
+	 * @param task the task
+	 */
+	public static void run( int height, int bandHeight, Executor executor, final Task task ) {
+		if ( bandHeight < 1 )
+			bandHeight = 1;
+		int bands = (height + bandHeight - 1) / bandHeight;
+		if ( bands <= 1 ) {
+			task.run( 0, height );
+			return;
+		}
+
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[bands];
+		for ( int i = 0; i < bands; i++ ) {
+			final int y0 = i * bandHeight;
+			final int y1 = Math.min( y0 + bandHeight, height );
+			futures[i] = CompletableFuture.runAsync( new Runnable() {
+				public void run() {
+					task.run( y0, y1 );
+				}
+			}, executor );
+		}
+
+		try {
+			CompletableFuture.allOf( futures ).join();
+		}
+		catch ( CompletionException e ) {
+			Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException )
+				throw (RuntimeException)cause;
+			if ( cause instanceof Error )
+				throw (Error)cause;
+			throw e;
+		}
+	}
+}
@@ -32,6 +32,7 @@ public class ShadowFilter extends AbstractBufferedImageOp {
 	private boolean addMargins = false;
 	private boolean shadowOnly = false;
 	private int shadowColor = 0xff000000;
+	private boolean fastBlur = false;
 
 	/**
      * Construct a ShadowFilter.
@@ -180,6 +181,25 @@ public class ShadowFilter extends AbstractBufferedImageOp {
 		return shadowOnly;
 	}
 
+	/**
+     * Set whether to blur the shadow with the fast approximation to Gaussian blur.
+     * @param fastBlur true to use the fast approximation.
+     * @see #getFastBlur
+     * @see GaussianFilter#setFastBlur
+     */
+	public void setFastBlur(boolean fastBlur) {
+		this.fastBlur = fastBlur;
+	}
+
+	/**
+     * Get whether to blur the shadow with the fast approximation to Gaussian blur.
+     * @return true to use the fast approximation.
+     * @see #setFastBlur
+     */
+	public boolean getFastBlur() {
+		return fastBlur;
+	}
+
     public Rectangle2D getBounds2D( BufferedImage src ) {
         Rectangle r = new Rectangle(0, 0, src.getWidth(), src.getHeight());
 		if ( addMargins ) {
@@ -235,7 +255,9 @@ public class ShadowFilter extends AbstractBufferedImageOp {
         };
         BufferedImage shadow = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
         new BandCombineOp( extractAlpha, null ).filter( src.getRaster(), shadow.getRaster() );
-        shadow = new GaussianFilter( radius ).filter( shadow, null );
+        GaussianFilter blur = new GaussianFilter( radius );
+        blur.setFastBlur( fastBlur );
+        shadow = blur.filter( shadow, null );
 
 		Graphics2D g = dst.createGraphics();
 		g.setComposite( AlphaComposite.getInstance( AlphaComposite.SRC_OVER, opacity ) );
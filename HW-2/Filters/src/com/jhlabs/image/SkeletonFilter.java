@@ -49,6 +49,10 @@ public class SkeletonFilter extends BinaryFilter {
 		newColor = 0xffffffff;
 	}
 
+	protected int getStripHalo() {
+		return 2*iterations;
+	}
+
 	protected int[] filterPixels( int width, int height, int[] inPixels, Rectangle transformedSpace ) {
 		int[] outPixels = new int[width * height];
 
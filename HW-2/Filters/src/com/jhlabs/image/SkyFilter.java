@@ -68,6 +68,7 @@ public class SkyFilter extends PointFilter {
 	private float width, height;
 
 	public SkyFilter() {
+		canFilterInParallel = false;
 		if ( skyColors == null ) {
 			skyColors = ImageUtils.createImage( Toolkit.getDefaultToolkit().getImage( getClass().getResource("SkyColors.png") ).getSource() );
 		}
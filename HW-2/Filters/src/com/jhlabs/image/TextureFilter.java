@@ -61,6 +61,7 @@ public class TextureFilter extends PointFilter {
 
 	public void setFunction(Function2D function) {
 		this.function = function;
+		canFilterInParallel = canEvaluateInParallel(function);
 	}
 
 	public Function2D getFunction() {
@@ -39,6 +39,13 @@ public abstract class TransferFilter extends PointFilter {
 		return a | (r << 16) | (g << 8) | b;
 	}
 
+	public void setDimensions(int width, int height) {
+		// Make sure the tables exist even when we're being driven by something other than filter, such as FilterPipeline
+		if (!initialized)
+			initialize();
+		super.setDimensions(width, height);
+	}
+
 	public BufferedImage filter( BufferedImage src, BufferedImage dst ) {
 		if (!initialized)
 			initialize();
@@ -34,6 +34,8 @@ public abstract class WholeImageFilter extends AbstractBufferedImageOp {
      * The input image bounds.
      */
 	protected Rectangle originalSpace;
+
+	private int stripHeight = 0;
 	
 	/**
 	 * Construct a WholeImageFilter.
@@ -41,6 +43,27 @@ public abstract class WholeImageFilter extends AbstractBufferedImageOp {
 	public WholeImageFilter() {
 	}
 
+	/**
+	 * Set the number of rows to filter at a time. Filters which only look at a bounded neighbourhood of each pixel
+	 * (see getStripHalo) can then be run over overlapping horizontal strips, so that the pixels held in memory
+	 * are bounded by the strip size rather than the image size. Other filters ignore this.
+	 * @param stripHeight the strip height, or 0 to filter the whole image in one go
+     * @min-value 0
+     * @see #getStripHeight
+	 */
+	public void setStripHeight( int stripHeight ) {
+		this.stripHeight = stripHeight;
+	}
+
+	/**
+	 * Get the number of rows to filter at a time.
+	 * @return the strip height, or 0 if the whole image is filtered in one go
+     * @see #setStripHeight
+	 */
+	public int getStripHeight() {
+		return stripHeight;
+	}
+
     public BufferedImage filter( BufferedImage src, BufferedImage dst ) {
         int width = src.getWidth();
         int height = src.getHeight();
@@ -57,6 +80,12 @@ public abstract class WholeImageFilter extends AbstractBufferedImageOp {
 		}
 		WritableRaster dstRaster = dst.getRaster();
 
+		int halo = getStripHalo();
+		if ( stripHeight > 0 && stripHeight < height && halo >= 0 && transformedSpace.equals( originalSpace ) ) {
+			filterStrips( src, dst, width, height, halo );
+			return dst;
+		}
+
 		int[] inPixels = getRGB( src, 0, 0, width, height, null );
 		inPixels = filterPixels( width, height, inPixels, transformedSpace );
 		setRGB( dst, 0, 0, transformedSpace.width, transformedSpace.height, inPixels );
@@ -64,6 +93,25 @@ public abstract class WholeImageFilter extends AbstractBufferedImageOp {
         return dst;
     }
 
+	/**
+	 * Filter the image a strip at a time. Each strip is read with halo extra rows above and below it, so that the
+	 * rows we keep are far enough from the strip edges not to be affected by them.
+	 */
+	private void filterStrips( BufferedImage src, BufferedImage dst, int width, int height, int halo ) {
+		for ( int y = 0; y < height; y += stripHeight ) {
+			int y1 = Math.min( y + stripHeight, height );
+			int top = Math.max( 0, y - halo );
+			int bottom = Math.min( height, y1 + halo );
+			int rows = bottom - top;
+
+			int[] inPixels = getRGB( src, 0, top, width, rows, null );
+			int[] outPixels = filterPixels( width, rows, inPixels, new Rectangle( 0, 0, width, rows ) );
+			if ( y > top )
+				System.arraycopy( outPixels, (y - top) * width, outPixels, 0, (y1 - y) * width );
+			setRGB( dst, 0, y, width, y1 - y, outPixels );
+		}
+	}
+
 	/**
      * Calculate output bounds for given input bounds.
      * @param rect input and output rectangle
@@ -71,6 +119,16 @@ public abstract class WholeImageFilter extends AbstractBufferedImageOp {
 	protected void transformSpace(Rectangle rect) {
 	}
 	
+	/**
+     * Get the number of rows above and below an output row which are needed to compute it. Filters which return
+     * a value of zero or more can be run a strip at a time.
+     * @return the number of rows, or -1 if the filter needs the whole image
+     * @see #setStripHeight
+     */
+	protected int getStripHalo() {
+		return -1;
+	}
+
 	/**
      * Actually filter the pixels.
      * @param width the image width
@@ -23,8 +23,6 @@ import java.util.*;
  */
 public class SCNoise implements Function1D, Function2D, Function3D {
 
-	private static Random randomGenerator = new Random();
-	
 	public float evaluate(float x) {
 		return evaluate(x, .1f);
 	}
@@ -35,8 +33,9 @@ public class SCNoise implements Function1D, Function2D, Function3D {
 		float sum = 0;
 		float fx, fy, dx, dy, distsq;
 
+		float[] impulseTab = SCNoise.impulseTab;
 		if (impulseTab == null)
-			impulseTab = impulseTabInit(665);
+			SCNoise.impulseTab = impulseTab = impulseTabInit(665);
 
 		ix = floor(x); fx = x - ix;
 		iy = floor(y); fy = y - iy;
@@ -68,8 +67,9 @@ public class SCNoise implements Function1D, Function2D, Function3D {
 		float sum = 0;
 		float fx, fy, fz, dx, dy, dz, distsq;
 
+		float[] impulseTab = SCNoise.impulseTab;
 		if (impulseTab == null)
-			impulseTab = impulseTabInit(665);
+			SCNoise.impulseTab = impulseTab = impulseTabInit(665);
 
 		ix = floor(x); fx = x - ix;
 		iy = floor(y); fy = y - iy;
@@ -122,7 +122,7 @@ public class SCNoise implements Function1D, Function2D, Function3D {
 	private final static int TABMASK = (TABSIZE-1);
 	private final static int NIMPULSES = 3;
 
-	private static float[] impulseTab;
+	private static volatile float[] impulseTab;
 
 	public static int floor(float x) {
 		int ix = (int)x;
@@ -133,7 +133,7 @@ public class SCNoise implements Function1D, Function2D, Function3D {
 
 	private final static int SAMPRATE = 100;  /* table entries per unit distance */
 	private final static int NENTRIES = (4*SAMPRATE+1);
-	private static float[] table;
+	private static volatile float[] table;
 
 	public float catrom2(float d) {
 		float x;
@@ -142,7 +142,9 @@ public class SCNoise implements Function1D, Function2D, Function3D {
 		if (d >= 4)
 			return 0;
 
+		float[] table = SCNoise.table;
 		if (table == null) {
+			// Filled in before it's published, so other threads never see a partly built table
  			table = new float[NENTRIES];
  			for (i = 0; i < NENTRIES; i++) {
 				x = i/(float)SAMPRATE;
@@ -152,6 +154,7 @@ public class SCNoise implements Function1D, Function2D, Function3D {
 				else
 					table[i] = 0.5f * (4+x*(-8+x*(5-x)));
 			}
+			SCNoise.table = table;
 		}
 
 		d = d*SAMPRATE + 0.5f;
@@ -164,7 +167,7 @@ public class SCNoise implements Function1D, Function2D, Function3D {
 	static float[] impulseTabInit(int seed) {
 		float[] impulseTab = new float[TABSIZE*4];
 
-		randomGenerator = new Random(seed); /* Set random number generator seed. */
+		Random randomGenerator = new Random(seed); /* Set random number generator seed. */
 		for (int i = 0; i < TABSIZE; i++) {
 			impulseTab[i++] = randomGenerator.nextFloat();
 			impulseTab[i++] = randomGenerator.nextFloat();
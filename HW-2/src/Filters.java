@@ -1,21 +1,29 @@
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 public class Filters {
+    private static final int ROWS_PER_BAND = 32;
+    // The sliding histograms also keep counts for bins of this many levels, to find ranks quickly
+    private static final int COARSE_BIN = 16;
+    private static final double DEFAULT_CLIP_LIMIT = 2.0;
+
     public static BufferedImage globalHistogramEqualization(BufferedImage inputImage) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-        BufferedImage output = new BufferedImage(width, height, inputImage.getType());
+        return globalHistogramEqualization(GrayPlane.of(inputImage)).toImage(inputImage.getType());
+    }
+
+    public static GrayPlane globalHistogramEqualization(GrayPlane input) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        byte[] levels = input.getData();
+        int stride = input.getStride();
         int imageSize = width * height;
         int[] histogram = new int[256];
 
         // Count the number of each pixel nk
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                int pixelValue = inputImage.getRGB(x, y) & 0xFF; // getting grayscale pixel value
-                histogram[pixelValue]++;
+                histogram[levels[y * stride + x] & 0xFF]++;
             }
         }
 
@@ -27,20 +35,11 @@ public class Filters {
         }
 
         // Compute new values
-        int[] newValues = new int[256];
+        byte[] newValues = new byte[256];
         for (int i = 0; i < 256; i++) {
-            newValues[i] = (int) Math.round(255.0 * sumOfPixels[i] / imageSize);
-        }
-
-        // Create new image
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int value = inputImage.getRGB(x, y) & 0xFF;
-                int newValue = newValues[value];
-                output.setRGB(x, y, new Color(newValue, newValue, newValue).getRGB()); // RGB have same value due to grayscale
-            }
+            newValues[i] = (byte) Math.round(255.0 * sumOfPixels[i] / imageSize);
         }
-        return output;
+        return map(input, newValues);
     }
 
     // Overloading for local histogram equalization with 3x3 default mask size
@@ -50,279 +49,509 @@ public class Filters {
     }
 
     public static BufferedImage localHistogramEqualization(BufferedImage input, int maskSize) {
+        return localHistogramEqualization(GrayPlane.of(input), maskSize).toImage(input.getType());
+    }
+
+    // Slides a histogram of the mask window along each row: moving one pixel right adds the column entering the
+    // window and drops the one leaving it, so each pixel costs O(maskSize) instead of O(maskSize^2 + 256).
+    // The new value is the rank of the center pixel in its window. Bands of rows run in parallel.
+    public static GrayPlane localHistogramEqualization(GrayPlane input, int maskSize) {
         int width = input.getWidth();
         int height = input.getHeight();
-        BufferedImage outputImage = new BufferedImage(width, height, input.getType());
+        byte[] levels = input.getData();
+        int stride = input.getStride();
+        GrayPlane result = new GrayPlane(width, height);
+        byte[] output = result.getData();
 
         int radius = maskSize / 2;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
+        // Ranks are out of the whole window even where it hangs over the edge of the image
+        int localTotal = (2 * radius + 1) * (2 * radius + 1);
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int[] localHistogram = new int[256];
+            int[] coarseHistogram = new int[256 / COARSE_BIN];
+            int y0 = band * ROWS_PER_BAND;
+            int y1 = Math.min(y0 + ROWS_PER_BAND, height);
+            for (int y = y0; y < y1; y++) {
+                Arrays.fill(localHistogram, 0);
+                Arrays.fill(coarseHistogram, 0);
+                int top = Math.max(y - radius, 0);
+                int bottom = Math.min(y + radius, height - 1);
+                for (int x = 0; x <= Math.min(radius, width - 1); x++) {
+                    addColumn(levels, stride, x, top, bottom, localHistogram, coarseHistogram, 1);
+                }
 
-                // Compute histogram values for local
-                int[] localHistogram = new int[256];
-                for (int i = -radius; i <= radius; i++) {
-                    for (int j = -radius; j <= radius; j++) {
-                        // Out of bound check
-                        if ((x + j >= 0 && x + j < width) && (y + i >= 0 && y + i < height)) {
-                            int pixelValue = input.getRGB(x + j, y + i) & 0xFF;
-                            localHistogram[pixelValue]++;
+                for (int x = 0; x < width; x++) {
+                    if (x > 0) {
+                        if (x + radius < width) {
+                            addColumn(levels, stride, x + radius, top, bottom, localHistogram, coarseHistogram, 1);
+                        }
+                        if (x - radius - 1 >= 0) {
+                            addColumn(levels, stride, x - radius - 1, top, bottom, localHistogram, coarseHistogram, -1);
                         }
                     }
+                    int currentValue = levels[y * stride + x] & 0xFF;
+                    int rank = rank(localHistogram, coarseHistogram, currentValue);
+                    output[y * width + x] = (byte) Math.round(255.0 * rank / localTotal);
                 }
+            }
+        });
+        return result;
+    }
 
-                // Compute cumulative histogram for local
-                int[] sumOflocalHist = new int[256];
-                sumOflocalHist[0] = localHistogram[0];
-                for (int i = 1; i < 256; i++) {
-                    sumOflocalHist[i] = sumOflocalHist[i - 1] + localHistogram[i];
-                }
+    public static BufferedImage contrastLimitedHistogramEqualization(BufferedImage input, int tileSize) {
+        return contrastLimitedHistogramEqualization(input, tileSize, DEFAULT_CLIP_LIMIT);
+    }
 
-                // Getting size of mask
-                int localTotal = maskSize * maskSize;
-                int currentValue = input.getRGB(x, y) & 0xFF;
-                // Calculate the new pixel value
-                int newValue = (int) Math.round(255.0 * sumOflocalHist[currentValue] / localTotal);
-                outputImage.setRGB(x, y, new Color(newValue, newValue, newValue).getRGB());
-            }
-        }
-        return outputImage;
+    public static BufferedImage contrastLimitedHistogramEqualization(BufferedImage input, int tileSize, double clipLimit) {
+        return contrastLimitedHistogramEqualization(GrayPlane.of(input), tileSize, clipLimit).toImage(input.getType());
     }
 
-    public static BufferedImage bitPlaneSlicing(BufferedImage inputImage, int bit) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-        BufferedImage output = new BufferedImage(width, height, inputImage.getType());
+    public static GrayPlane contrastLimitedHistogramEqualization(GrayPlane input, int tileSize) {
+        return contrastLimitedHistogramEqualization(input, tileSize, DEFAULT_CLIP_LIMIT);
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixelValue = inputImage.getRGB(x, y) & 0xFF; // getting grayscale pixel value
-                String binaryPixelValue = Integer.toBinaryString(pixelValue);
-                while (binaryPixelValue.length() < 8) {
-                    binaryPixelValue = "0" + binaryPixelValue;
+    // CLAHE: equalizes tiles of tileSize x tileSize pixels, with each histogram bin clipped to clipLimit times the
+    // average bin and the excess spread over all bins. Each pixel blends the mappings of the four nearest tile
+    // centers, so the cost per pixel doesn't depend on the tile size at all.
+    public static GrayPlane contrastLimitedHistogramEqualization(GrayPlane input, int tileSize, double clipLimit) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size must be at least 1, got " + tileSize);
+        }
+        int width = input.getWidth();
+        int height = input.getHeight();
+        byte[] levels = input.getData();
+        int stride = input.getStride();
+        GrayPlane result = new GrayPlane(width, height);
+        byte[] output = result.getData();
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+
+        // Mapping of each tile, computed in parallel
+        int[][] mappings = IntStream.range(0, tilesX * tilesY).parallel().mapToObj(tile -> {
+            int x0 = tile % tilesX * tileSize;
+            int y0 = tile / tilesX * tileSize;
+            int x1 = Math.min(x0 + tileSize, width);
+            int y1 = Math.min(y0 + tileSize, height);
+            int[] histogram = new int[256];
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    histogram[levels[y * stride + x] & 0xFF]++;
                 }
-                int newPixelValue;
-                if (binaryPixelValue.charAt(7 - (bit - 1)) == '1') {
-                    newPixelValue = 255;
-                } else {
-                    newPixelValue = 0;
+            }
+            return clippedMapping(histogram, (x1 - x0) * (y1 - y0), clipLimit);
+        }).toArray(int[][]::new);
+
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            int y1 = Math.min(y0 + ROWS_PER_BAND, height);
+            for (int y = y0; y < y1; y++) {
+                // Position relative to the tile centers above and below, and to the left and right
+                double ty = (y + 0.5) / tileSize - 0.5;
+                int row = (int) Math.floor(ty);
+                int tileTop = Math.max(row, 0);
+                int tileBottom = Math.min(row + 1, tilesY - 1);
+                double fy = ty < 0 ? 0 : ty - row;
+                for (int x = 0; x < width; x++) {
+                    double tx = (x + 0.5) / tileSize - 0.5;
+                    int column = (int) Math.floor(tx);
+                    int tileLeft = Math.max(column, 0);
+                    int tileRight = Math.min(column + 1, tilesX - 1);
+                    double fx = tx < 0 ? 0 : tx - column;
+
+                    int value = levels[y * stride + x] & 0xFF;
+                    double upper = (1 - fx) * mappings[tileTop * tilesX + tileLeft][value] + fx * mappings[tileTop * tilesX + tileRight][value];
+                    double lower = (1 - fx) * mappings[tileBottom * tilesX + tileLeft][value] + fx * mappings[tileBottom * tilesX + tileRight][value];
+                    output[y * width + x] = (byte) Math.round((1 - fy) * upper + fy * lower);
                 }
-                output.setRGB(x, y, new Color(newPixelValue, newPixelValue, newPixelValue).getRGB());
             }
+        });
+        return result;
+    }
+
+    // Clips the histogram, hands the clipped counts back out evenly and returns the equalization mapping
+    private static int[] clippedMapping(int[] histogram, int count, double clipLimit) {
+        int clip = Math.max(1, (int) (clipLimit * count / 256));
+        int excess = 0;
+        for (int i = 0; i < 256; i++) {
+            if (histogram[i] > clip) {
+                excess += histogram[i] - clip;
+                histogram[i] = clip;
+            }
+        }
+        int share = excess / 256;
+        int remainder = excess % 256;
+        int[] mapping = new int[256];
+        int sum = 0;
+        for (int i = 0; i < 256; i++) {
+            sum += histogram[i] + share + (i * remainder / 256 != (i + 1) * remainder / 256 ? 1 : 0);
+            mapping[i] = (int) Math.round(255.0 * sum / count);
         }
-        return output;
+        return mapping;
     }
 
-    public static BufferedImage combineBitPlanes(BufferedImage inputImage, int[] bits) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-        BufferedImage outputImage = new BufferedImage(width, height, inputImage.getType());
+    private static void addColumn(byte[] levels, int stride, int x, int top, int bottom, int[] histogram, int[] coarse, int delta) {
+        for (int y = top; y <= bottom; y++) {
+            int value = levels[y * stride + x] & 0xFF;
+            histogram[value] += delta;
+            coarse[value / COARSE_BIN] += delta;
+        }
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixelValue = inputImage.getRGB(x, y) & 0xFF;
-                String binaryPixelValue = Integer.toBinaryString(pixelValue);
+    // Number of values in the histogram at or below value, adding whole coarse bins where it can
+    private static int rank(int[] histogram, int[] coarse, int value) {
+        int rank = 0;
+        int bin = value / COARSE_BIN;
+        for (int i = 0; i < bin; i++) {
+            rank += coarse[i];
+        }
+        for (int i = bin * COARSE_BIN; i <= value; i++) {
+            rank += histogram[i];
+        }
+        return rank;
+    }
 
-                // Ensure the binary string has 8 bits
-                while (binaryPixelValue.length() < 8) {
-                    binaryPixelValue = "0" + binaryPixelValue;
-                }
+    public static BufferedImage bitPlaneSlicing(BufferedImage inputImage, int bit) {
+        return bitPlaneSlicing(GrayPlane.of(inputImage), bit).toImage(inputImage.getType());
+    }
 
-                int combinedPixelValue = 0;
-                for (int bit : bits) {
-                    int bitPosition = 7 - (bit - 1);
-                    int bitValue;
+    // White where the bit is set and black elsewhere; bit 1 is the least significant. The shift, mask and negate
+    // run straight over the bytes, which the JIT can vectorize.
+    public static GrayPlane bitPlaneSlicing(GrayPlane input, int bit) {
+        int shift = bitPlaneShift(bit);
+        int width = input.getWidth();
+        int height = input.getHeight();
+        byte[] levels = input.getData();
+        int stride = input.getStride();
+        GrayPlane result = new GrayPlane(width, height);
+        byte[] output = result.getData();
+        // A plane without gaps between rows is one long row
+        int rows = stride == width ? 1 : height;
+        int length = stride == width ? width * height : width;
+        for (int y = 0; y < rows; y++) {
+            int in = y * stride;
+            int out = y * width;
+            for (int x = 0; x < length; x++) {
+                output[out + x] = (byte) -((levels[in + x] >> shift) & 1);
+            }
+        }
+        return result;
+    }
 
-                    if (binaryPixelValue.charAt(bitPosition) == '1') {
-                        bitValue = 1;
-                    } else {
-                        bitValue = 0;
-                    }
+    public static BufferedImage combineBitPlanes(BufferedImage inputImage, int[] bits) {
+        return combineBitPlanes(GrayPlane.of(inputImage), bitPlaneMask(bits)).toImage(inputImage.getType());
+    }
 
-                    combinedPixelValue += (int) (bitValue * Math.pow(2, bit - 1));
-                }
+    public static GrayPlane combineBitPlanes(GrayPlane input, int[] bits) {
+        return combineBitPlanes(input, bitPlaneMask(bits));
+    }
 
-                Color combinedColor = new Color(combinedPixelValue, combinedPixelValue, combinedPixelValue);
-                outputImage.setRGB(x, y, combinedColor.getRGB());
+    // Keeps only the bits of each pixel that are set in mask. As a lookup table this would map every level to
+    // level & mask, so the pass just does the AND, which the JIT can vectorize.
+    public static GrayPlane combineBitPlanes(GrayPlane input, int mask) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        byte[] levels = input.getData();
+        int stride = input.getStride();
+        GrayPlane result = new GrayPlane(width, height);
+        byte[] output = result.getData();
+        byte bits = (byte) mask;
+        int rows = stride == width ? 1 : height;
+        int length = stride == width ? width * height : width;
+        for (int y = 0; y < rows; y++) {
+            int in = y * stride;
+            int out = y * width;
+            for (int x = 0; x < length; x++) {
+                output[out + x] = (byte) (levels[in + x] & bits);
             }
         }
+        return result;
+    }
 
-        return outputImage;
+    // The mask selecting the given bit planes, bit 1 being the least significant. Repeated bits count once.
+    public static int bitPlaneMask(int[] bits) {
+        int mask = 0;
+        for (int bit : bits) {
+            mask |= 1 << bitPlaneShift(bit);
+        }
+        return mask;
+    }
+
+    private static int bitPlaneShift(int bit) {
+        if (bit < 1 || bit > 8) {
+            throw new IllegalArgumentException("Bit planes are numbered 1 to 8, got " + bit);
+        }
+        return bit - 1;
     }
 
+    // A summed-area table of the image's gray levels, to share between the box filter, high-boost and local
+    // statistics on the same image
+    public static IntegralImage integralImage(GrayPlane input) {
+        return new IntegralImage(input);
+    }
 
     public static BufferedImage smoothingBoxFilter(BufferedImage inputImage, int maskSize) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-        BufferedImage outputImg = new BufferedImage(width, height, inputImage.getType());
-        int subMask = maskSize / 2;
+        return smoothingBoxFilter(integralImage(GrayPlane.of(inputImage)), maskSize).toImage(inputImage.getType());
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int sumPixelValue = 0;
-                int count = 0;
-                for (int yj = -subMask; yj <= maskSize; yj++) {
-                    for (int xi = -subMask; xi <= maskSize; xi++) {
-                        if ((x + xi >= 0 && x + xi < width) && (y + yj >= 0 && y + yj < height)) {
-                            int pixelValue = inputImage.getRGB(x + xi, y + yj) & 0xFF;
-                            sumPixelValue += pixelValue;
-                            count++;
-                        }
-                    }
-                }
-                int newPixelValue = sumPixelValue / count;
-                outputImg.setRGB(x, y, new Color(newPixelValue, newPixelValue, newPixelValue).getRGB());
-            }
-        }
-        return outputImg;
+    // Mean of the maskSize x maskSize window (rounded up to odd) over the pixels inside the image, in constant time
+    // per pixel from the integral image
+    public static GrayPlane smoothingBoxFilter(IntegralImage integral, int maskSize) {
+        return integral.boxMeans(maskSize / 2);
     }
 
+    // The 3x3 kernel {1 2 1, 2 4 2, 1 2 1} / 16 is {1 2 1} along the rows then down the columns, with pixels
+    // outside the image counting as 0
     public static BufferedImage smoothingWeightedAverageFilter(BufferedImage inputImage) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-        BufferedImage outputImg = new BufferedImage(width, height, inputImage.getType());
-        int[][] kernel = {
-                {1, 2, 1},
-                {2, 4, 2},
-                {1, 2, 1}
-        };
+        return smoothingWeightedAverageFilter(GrayPlane.of(inputImage)).toImage(inputImage.getType());
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int sumPixelValue = 0;
-//                int count = 0;
-                for (int yj = -1; yj <= 1; yj++) {
-                    for (int xi = -1; xi <= 1; xi++) {
-                        if ((x + xi >= 0 && x + xi < width) && (y + yj >= 0 && y + yj < height)) {
-                            int pixelValue = inputImage.getRGB(x + xi, y + yj) & 0xFF;
-                            sumPixelValue += pixelValue * kernel[yj + 1][xi + 1];
-                        }
+    public static GrayPlane smoothingWeightedAverageFilter(GrayPlane input) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        byte[] levels = input.getData();
+        int stride = input.getStride();
+        short[] rows = new short[width * height];
+        GrayPlane result = new GrayPlane(width, height);
+        byte[] output = result.getData();
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            int y1 = Math.min(y0 + ROWS_PER_BAND, height);
+            for (int y = y0; y < y1; y++) {
+                weightRow(levels, y * stride, rows, y * width, width);
+            }
+        });
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            int y1 = Math.min(y0 + ROWS_PER_BAND, height);
+            for (int y = y0; y < y1; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int sum = 2 * rows[row + x];
+                    if (y > 0) {
+                        sum += rows[row - width + x];
                     }
+                    if (y < height - 1) {
+                        sum += rows[row + width + x];
+                    }
+                    output[row + x] = (byte) (sum / 16); // 16 due to the sum of the kernel pixel values
                 }
-                int newPixelValue = sumPixelValue / 16; // 16 due to the sum of the kernel pixel values
-                outputImg.setRGB(x, y, new Color(newPixelValue, newPixelValue, newPixelValue).getRGB());
             }
+        });
+        return result;
+    }
+
+    private static void weightRow(byte[] levels, int in, short[] rows, int out, int width) {
+        for (int x = 0; x < width; x++) {
+            int sum = 2 * (levels[in + x] & 0xFF);
+            if (x > 0) {
+                sum += levels[in + x - 1] & 0xFF;
+            }
+            if (x < width - 1) {
+                sum += levels[in + x + 1] & 0xFF;
+            }
+            rows[out + x] = (short) sum;
         }
-        return outputImg;
     }
 
     public static BufferedImage laplacianSharpeningFilter(BufferedImage inputImage) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
+        return laplacianSharpeningFilter(GrayPlane.of(inputImage)).toImage(inputImage.getType());
+    }
 
-        // Create a new image with increased width and height for Laplacian calculation
-        BufferedImage paddedImage = new BufferedImage(width + 2, height + 2, inputImage.getType());  // +2 for left and right, and top and bottom extra pixels
+    // The original minus the Laplacian {1 1 1, 1 -8 1, 1 1 1}, which comes to 9 times the pixel minus its eight
+    // neighbors. Pixels past the edges repeat the nearest edge pixel.
+    public static GrayPlane laplacianSharpeningFilter(GrayPlane input) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        byte[] levels = input.getData();
+        int stride = input.getStride();
+        GrayPlane result = new GrayPlane(width, height);
+        byte[] output = result.getData();
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            int y1 = Math.min(y0 + ROWS_PER_BAND, height);
+            for (int y = y0; y < y1; y++) {
+                int above = Math.max(y - 1, 0) * stride;
+                int row = y * stride;
+                int below = Math.min(y + 1, height - 1) * stride;
+                for (int x = 0; x < width; x++) {
+                    int left = Math.max(x - 1, 0);
+                    int right = Math.min(x + 1, width - 1);
+                    int neighbors = (levels[above + left] & 0xFF) + (levels[above + x] & 0xFF) + (levels[above + right] & 0xFF)
+                            + (levels[row + left] & 0xFF) + (levels[row + right] & 0xFF)
+                            + (levels[below + left] & 0xFF) + (levels[below + x] & 0xFF) + (levels[below + right] & 0xFF);
+                    int newPixelValue = 9 * (levels[row + x] & 0xFF) - neighbors;
+                    // Adjust the values to be between 0 and 255
+                    output[y * width + x] = (byte) Math.max(0, Math.min(255, newPixelValue));
+                }
+            }
+        });
+        return result;
+    }
 
-        // Copy the original image into the center of the padded image
-        for (int y = 0; y < height; y++) {
+    public static BufferedImage highBoostFilter(BufferedImage inputImage, float k) {
+        return highBoostFilter(integralImage(GrayPlane.of(inputImage)), k).toImage(inputImage.getType());
+    }
+
+    // The original plus k times the mask, where the mask is how far the original is above its 3x3 box mean
+    public static GrayPlane highBoostFilter(IntegralImage integral, float k) {
+        GrayPlane input = integral.getPlane();
+        byte[] levels = input.getData();
+        int stride = input.getStride();
+        int width = input.getWidth();
+        byte[] blurred = integral.boxMeans(1).getData();
+        GrayPlane result = new GrayPlane(width, input.getHeight());
+        byte[] output = result.getData();
+        for (int y = 0; y < input.getHeight(); y++) {
             for (int x = 0; x < width; x++) {
-                paddedImage.setRGB(x + 1, y + 1, inputImage.getRGB(x, y));
+                int originalPixel = levels[y * stride + x] & 0xFF;
+                int maskPixel = Math.max(0, originalPixel - (blurred[y * width + x] & 0xFF));
+                int highBoostPixel = originalPixel + Math.round(k * maskPixel);
+                output[y * width + x] = (byte) Math.max(0, Math.min(255, highBoostPixel));
             }
         }
+        return result;
+    }
 
-        // Provide pixel values to edges
-        for (int x = 1; x <= width; x++) {
-            paddedImage.setRGB(x, 0, inputImage.getRGB(x - 1, 0));
-            paddedImage.setRGB(x, height + 1, inputImage.getRGB(x - 1, height - 1));
-        }
-        for (int y = 0; y <= height + 1; y++) {
-            paddedImage.setRGB(0, y, paddedImage.getRGB(1, y));
-            paddedImage.setRGB(width + 1, y, paddedImage.getRGB(width, y));
+    // Constant time median (Perreault and Hebert): every column keeps a histogram of the mask rows around the
+    // current row, and the mask histogram slides along the row by adding and removing whole column histograms.
+    // Histograms have 16 coarse bins of 16 levels; the fine counts of a coarse bin are only brought up to date when
+    // the median falls in it. Near the edges the mask only covers pixels inside the image, and the median is the
+    // upper one when the count is even. Bands of rows run in parallel. The same code is in the Filters library's
+    // MedianFilter.channelMedian, which this module doesn't build against, so fix both together.
+    public static BufferedImage medianFilter(BufferedImage inputImage, int maskSize) {
+        return medianFilter(GrayPlane.of(inputImage), maskSize).toImage(inputImage.getType());
+    }
+
+    public static GrayPlane medianFilter(GrayPlane input, int maskSize) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        GrayPlane result = new GrayPlane(width, height);
+        int subMask = maskSize / 2;
+
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            medianRows(input, result.getData(), subMask, y0, Math.min(y0 + ROWS_PER_BAND, height));
+        });
+        return result;
+    }
+
+    private static void medianRows(GrayPlane input, byte[] output, int radius, int y0, int y1) {
+        byte[] levels = input.getData();
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int stride = input.getStride();
+        short[] columnFine = new short[width * 256];
+        short[] columnCoarse = new short[width * 16];
+        for (int y = Math.max(y0 - radius, 0); y <= Math.min(y0 + radius, height - 1); y++) {
+            addRow(levels, stride, width, y, columnFine, columnCoarse, 1);
         }
 
-        // Handle the corners
-        paddedImage.setRGB(0, 0, inputImage.getRGB(0, 0));
-        paddedImage.setRGB(width + 1, 0, inputImage.getRGB(width - 1, 0));
-        paddedImage.setRGB(0, height + 1, inputImage.getRGB(0, height - 1));
-        paddedImage.setRGB(width + 1, height + 1, inputImage.getRGB(width - 1, height - 1));
-
-        // Now apply the Laplacian sharpening on the padded image
-        BufferedImage output = new BufferedImage(width, height, inputImage.getType());
-        int[][] filter = {
-                {1, 1,  1},
-                {1, -8, 1},
-                {1, 1,  1}
-        };
-
-        for (int y = 1; y <= height; y++) {
-            for (int x = 1; x <= width; x++) {
-                int pixelSum = 0;
-                for (int ky = -1; ky <= 1; ky++) {
-                    for (int kx = -1; kx <= 1; kx++) {
-                        int pixel = paddedImage.getRGB(x + kx, y + ky) & 0xFF;
-                        pixelSum += pixel * filter[ky + 1][kx + 1];
+        int[] coarse = new int[16];
+        int[] fine = new int[256];
+        // The column each coarse bin's fine counts were last brought up to date for
+        int[] fineColumn = new int[16];
+        for (int y = y0; y < y1; y++) {
+            if (y > y0) {
+                if (y - radius - 1 >= 0) {
+                    addRow(levels, stride, width, y - radius - 1, columnFine, columnCoarse, -1);
+                }
+                if (y + radius < height) {
+                    addRow(levels, stride, width, y + radius, columnFine, columnCoarse, 1);
+                }
+            }
+            int rows = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+
+            Arrays.fill(coarse, 0);
+            // Far enough back that the first use of each bin rebuilds it
+            Arrays.fill(fineColumn, -2 * radius - 2);
+            for (int x = 0; x <= Math.min(radius, width - 1); x++) {
+                addHistogram(columnCoarse, x * 16, coarse, 0, 16, 1);
+            }
+            for (int x = 0; x < width; x++) {
+                if (x > 0) {
+                    if (x + radius < width) {
+                        addHistogram(columnCoarse, (x + radius) * 16, coarse, 0, 16, 1);
+                    }
+                    if (x - radius - 1 >= 0) {
+                        addHistogram(columnCoarse, (x - radius - 1) * 16, coarse, 0, 16, -1);
                     }
                 }
+                int count = (Math.min(x + radius, width - 1) - Math.max(x - radius, 0) + 1) * rows;
 
-                int originalPixel = paddedImage.getRGB(x, y) & 0xFF;
-                int newPixelValue = originalPixel - pixelSum;
-                // Adjust the values to be between 0 and 255
-                newPixelValue = Math.max(0, Math.min(255, newPixelValue));
-                output.setRGB(x - 1, y - 1, new Color(newPixelValue, newPixelValue, newPixelValue).getRGB());
+                // Find the coarse bin holding the median, then the level within it
+                int target = count / 2;
+                int bin = 0;
+                while (target >= coarse[bin]) {
+                    target -= coarse[bin++];
+                }
+                updateFine(columnFine, fine, fineColumn, bin, x, width, radius);
+                int level = bin * 16;
+                while (target >= fine[level]) {
+                    target -= fine[level++];
+                }
+                output[y * width + x] = (byte) level;
             }
         }
-
-        return output;
     }
 
-    public static BufferedImage highBoostFilter(BufferedImage inputImage, float k) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-
-        BufferedImage output = new BufferedImage(width, height, inputImage.getType());
-
-        // Blur the original image using a box filter
-        BufferedImage blurredImage = smoothingBoxFilter(inputImage, 3);
-
-        // Compute the mask: original - blurred
-        BufferedImage maskImage = new BufferedImage(width, height, inputImage.getType());
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                int originalPixel = inputImage.getRGB(x, y) & 0xFF;
-                int blurredPixel = blurredImage.getRGB(x, y) & 0xFF;
-                int maskPixel = originalPixel - blurredPixel;
-                maskPixel = Math.max(0, maskPixel);
-                maskImage.setRGB(x, y, maskPixel);
+    // Brings the fine counts of one coarse bin up to date for the mask centered on column x
+    private static void updateFine(short[] columnFine, int[] fine, int[] fineColumn, int bin, int x, int width, int radius) {
+        int offset = bin * 16;
+        int last = fineColumn[bin];
+        if (last == x) {
+            return;
+        }
+        if (x - last > 2 * radius + 1) {
+            // Too far behind to catch up column by column
+            Arrays.fill(fine, offset, offset + 16, 0);
+            for (int column = Math.max(x - radius, 0); column <= Math.min(x + radius, width - 1); column++) {
+                addHistogram(columnFine, column * 256 + offset, fine, offset, 16, 1);
+            }
+        } else {
+            for (int position = last + 1; position <= x; position++) {
+                if (position + radius < width) {
+                    addHistogram(columnFine, (position + radius) * 256 + offset, fine, offset, 16, 1);
+                }
+                if (position - radius - 1 >= 0) {
+                    addHistogram(columnFine, (position - radius - 1) * 256 + offset, fine, offset, 16, -1);
+                }
             }
         }
+        fineColumn[bin] = x;
+    }
 
-        // Add the weighted mask to the original image
+    private static void addRow(byte[] levels, int stride, int width, int y, short[] columnFine, short[] columnCoarse, int delta) {
         for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                int originalPixel = inputImage.getRGB(x, y) & 0xFF;
-                int maskPixel = maskImage.getRGB(x, y) & 0xFF;
-                int highBoostPixel = originalPixel + Math.round(k * maskPixel);
-
-                highBoostPixel = Math.max(0, Math.min(255, highBoostPixel));
-
-                output.setRGB(x, y, new Color(highBoostPixel, highBoostPixel, highBoostPixel).getRGB());
-            }
+            int value = levels[y * stride + x] & 0xFF;
+            columnFine[x * 256 + value] += delta;
+            columnCoarse[x * 16 + (value >> 4)] += delta;
         }
-
-        return output;
     }
 
-    public static BufferedImage medianFilter(BufferedImage inputImage, int maskSize) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-        BufferedImage outputImg = new BufferedImage(width, height, inputImage.getType());
-        int subMask = maskSize / 2;
+    private static void addHistogram(short[] column, int columnOffset, int[] histogram, int offset, int length, int delta) {
+        for (int i = 0; i < length; i++) {
+            histogram[offset + i] += delta * column[columnOffset + i];
+        }
+    }
 
+    // Every level of the plane looked up in a 256-entry table
+    private static GrayPlane map(GrayPlane input, byte[] table) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        byte[] levels = input.getData();
+        int stride = input.getStride();
+        GrayPlane result = new GrayPlane(width, height);
+        byte[] output = result.getData();
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                ArrayList<Integer> listOfSubMaskPixels = new ArrayList<Integer>();
-                for (int i = -subMask; i <= subMask; i++) {
-                    for (int j = -subMask; j <= subMask; j++) {
-                        if ((x + j >= 0 && x + j < width) && (y + i >= 0 && y + i < height)) {
-                            int pixelValue = inputImage.getRGB(x + j, y + i) & 0xFF;
-                            listOfSubMaskPixels.add(pixelValue);
-                        }
-                    }
-                }
-                Collections.sort(listOfSubMaskPixels);
-                int newPixelValue = listOfSubMaskPixels.get(listOfSubMaskPixels.size()/2);
-                outputImg.setRGB(x, y, new Color(newPixelValue, newPixelValue, newPixelValue).getRGB());
+                output[y * width + x] = table[levels[y * stride + x] & 0xFF];
             }
         }
-        return outputImg;
+        return result;
     }
 }
@@ -0,0 +1,98 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+// An 8-bit grayscale image as a plain byte array, with row y starting at y * stride. The filters read and write
+// planes, so an image is converted from a BufferedImage once however many filters run on it, and back once at the
+// end. Planes made by the filters have stride == width; a wider stride lets a plane sit inside a larger buffer.
+public class GrayPlane {
+    private final byte[] data;
+    private final int width;
+    private final int height;
+    private final int stride;
+
+    public GrayPlane(int width, int height) {
+        this(new byte[width * height], width, height, width);
+    }
+
+    public GrayPlane(byte[] data, int width, int height, int stride) {
+        if (width < 0 || height < 0 || stride < width) {
+            throw new IllegalArgumentException("Bad plane size " + width + "x" + height + " with stride " + stride);
+        }
+        if (height > 0 && data.length < (height - 1) * stride + width) {
+            throw new IllegalArgumentException("Expected at least " + ((height - 1) * stride + width) + " bytes, got " + data.length);
+        }
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+    }
+
+    // The gray levels of the image, read the way the filters always have: the blue channel of getRGB. That is the
+    // gray level of a gray image in sRGB, so a TYPE_BYTE_GRAY sample of 128 reads as 188, and of a color image it
+    // is only the blue channel, not its luma.
+    public static GrayPlane of(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] rgb = image.getRGB(0, 0, width, height, null, 0, width);
+        byte[] levels = new byte[width * height];
+        for (int i = 0; i < rgb.length; i++) {
+            levels[i] = (byte) rgb[i];
+        }
+        return new GrayPlane(levels, width, height, width);
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int get(int x, int y) {
+        return data[y * stride + x] & 0xFF;
+    }
+
+    public void set(int x, int y, int value) {
+        data[y * stride + x] = (byte) value;
+    }
+
+    // An image of the given type (TYPE_BYTE_GRAY if it has none) showing the plane. Each level is written as an sRGB
+    // gray, the way setRGB always wrote the filters' output, so a TYPE_BYTE_GRAY image stores it converted back.
+    public BufferedImage toImage(int type) {
+        if (type == BufferedImage.TYPE_CUSTOM) {
+            type = BufferedImage.TYPE_BYTE_GRAY;
+        }
+        BufferedImage output = new BufferedImage(width, height, type);
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB
+                || type == BufferedImage.TYPE_INT_ARGB_PRE || type == BufferedImage.TYPE_INT_BGR) {
+            // Opaque gray is the same in all of these packings, so write the pixels straight into the buffer
+            int[] pixels = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+            for (int y = 0; y < height; y++) {
+                int in = y * stride;
+                int out = y * width;
+                for (int x = 0; x < width; x++) {
+                    pixels[out + x] = 0xFF000000 | (data[in + x] & 0xFF) * 0x010101;
+                }
+            }
+            return output;
+        }
+        int[] rgb = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = data[y * stride + x] & 0xFF;
+                rgb[x] = 0xFF000000 | (value << 16) | (value << 8) | value;
+            }
+            output.setRGB(0, y, width, 1, rgb, 0, width);
+        }
+        return output;
+    }
+}
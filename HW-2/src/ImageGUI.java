@@ -3,7 +3,6 @@ import java.awt.*;
 import javax.imageio.ImageIO;
 import java.io.File;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
 
 public class ImageGUI {
 
@@ -14,6 +13,10 @@ public class ImageGUI {
     private float currentA = 4.5f;
     private JCheckBox[] bitPlaneCheckboxes;
     private JLabel frame;
+    // Gray plane and integral image of the open image, made the first time a filter needs them
+    private BufferedImage planeSource;
+    private GrayPlane grayPlane;
+    private IntegralImage integralImage;
 
     public ImageGUI() {
         createGUI();
@@ -35,7 +38,7 @@ public class ImageGUI {
 
         // Filter Menu
         JMenu filterMenu = new JMenu("Filter");
-        String[] filterNames = {"Global Histogram Equalization", "Local Histogram Equalization", "Smoothing Box Filter", "Smoothing Average Weighted Filter", "Median Filter", "Laplacian Sharpening", "High Boost Filter"};
+        String[] filterNames = {"Global Histogram Equalization", "Local Histogram Equalization", "CLAHE", "Smoothing Box Filter", "Smoothing Average Weighted Filter", "Median Filter", "Laplacian Sharpening", "High Boost Filter"};
 
         currentFilterLabel.setHorizontalAlignment(SwingConstants.CENTER);
 
@@ -75,7 +78,13 @@ public class ImageGUI {
         JButton applyButton = new JButton("Apply");
         applyButton.addActionListener(e -> {
             try {
-                currentMaskSize = Integer.parseInt(maskSizeTextField.getText());
+                int maskSize = Integer.parseInt(maskSizeTextField.getText());
+                if (maskSize < 1) {
+                    // Also the CLAHE tile size, which can't be empty
+                    JOptionPane.showMessageDialog(frame, "Mask size must be at least 1.", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                currentMaskSize = maskSize;
                 if (currentFilterLabel.getText().length() > 0) {
                     applyFilter(currentFilterLabel.getText());  // Reapply filter with the new mask size
                 }
@@ -158,24 +167,27 @@ public class ImageGUI {
 
         JButton applyBitPlanesButton = new JButton("Apply Bit Planes");
         applyBitPlanesButton.addActionListener(e -> {
+            if (originalImageLabel.getIcon() == null) {
+                return;
+            }
             BufferedImage originalImage = (BufferedImage) ((ImageIcon) originalImageLabel.getIcon()).getImage();
 
-            // List to store the selected bit positions
-            ArrayList<Integer> selectedBits = new ArrayList<>();
+            // Mask of the selected bit planes, bit 1 being the lowest
+            int mask = 0;
             StringBuilder appliedBitPlanes = new StringBuilder("Selected Bit Planes: "); // For tracking
 
             for (int i = 0; i < bitPlaneCheckboxes.length; i++) {
                 if (bitPlaneCheckboxes[i].isSelected()) {
-                    selectedBits.add(i + 1); // Add the bit position to the list
+                    mask |= 1 << i;
                     appliedBitPlanes.append(i + 1).append(" ");
                 }
             }
 
             System.out.println(appliedBitPlanes.toString());
 
-            if (!selectedBits.isEmpty()) {
-                BufferedImage combinedImage = Filters.combineBitPlanes(originalImage, selectedBits.stream().mapToInt(Integer::intValue).toArray());
-                processedImageLabel.setIcon(new ImageIcon(combinedImage));
+            if (mask != 0) {
+                GrayPlane combined = Filters.combineBitPlanes(grayPlane(originalImage), mask);
+                processedImageLabel.setIcon(new ImageIcon(combined.toImage(originalImage.getType())));
             } else {
                 // Handle the case where no checkboxes are selected
                 System.out.println("No bit planes selected.");
@@ -193,34 +205,56 @@ public class ImageGUI {
         }
 
         BufferedImage originalImage = (BufferedImage) ((ImageIcon) originalImageLabel.getIcon()).getImage();
-        BufferedImage processedImage = null;
+        GrayPlane original = grayPlane(originalImage);
+        GrayPlane processed = null;
 
         switch (filterName) {
             case "Global Histogram Equalization":
-                processedImage = Filters.globalHistogramEqualization(originalImage);
+                processed = Filters.globalHistogramEqualization(original);
                 break;
             case "Local Histogram Equalization":
-                processedImage = Filters.localHistogramEqualization(originalImage, currentMaskSize);
+                processed = Filters.localHistogramEqualization(original, currentMaskSize);
+                break;
+            case "CLAHE":
+                // The mask size is the tile size here
+                processed = Filters.contrastLimitedHistogramEqualization(original, currentMaskSize);
                 break;
             case "Smoothing Box Filter":
-                processedImage = Filters.smoothingBoxFilter(originalImage, currentMaskSize);
+                processed = Filters.smoothingBoxFilter(integralImage(originalImage), currentMaskSize);
                 break;
             case "Smoothing Average Weighted Filter":
-                processedImage = Filters.smoothingWeightedAverageFilter(originalImage);
+                processed = Filters.smoothingWeightedAverageFilter(original);
                 break;
             case "Laplacian Sharpening":
-                processedImage = Filters.laplacianSharpeningFilter(originalImage);
+                processed = Filters.laplacianSharpeningFilter(original);
                 break;
             case "High Boost Filter":
-                processedImage = Filters.highBoostFilter(originalImage, currentA);
+                processed = Filters.highBoostFilter(integralImage(originalImage), currentA);
                 break;
             case "Median Filter":
-                processedImage = Filters.medianFilter(originalImage, currentMaskSize);
+                processed = Filters.medianFilter(original, currentMaskSize);
                 break;
         }
 
-        if (processedImage != null) {
-            processedImageLabel.setIcon(new ImageIcon(processedImage));
+        if (processed != null) {
+            processedImageLabel.setIcon(new ImageIcon(processed.toImage(originalImage.getType())));
+        }
+    }
+
+    private GrayPlane grayPlane(BufferedImage image) {
+        if (image != planeSource) {
+            grayPlane = GrayPlane.of(image);
+            integralImage = null;
+            planeSource = image;
+        }
+        return grayPlane;
+    }
+
+    private IntegralImage integralImage(BufferedImage image) {
+        GrayPlane plane = grayPlane(image);
+        if (integralImage == null) {
+            integralImage = Filters.integralImage(plane);
         }
+        return integralImage;
     }
 }
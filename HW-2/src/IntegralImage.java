@@ -0,0 +1,133 @@
+import java.util.stream.IntStream;
+
+// Summed-area table of a grayscale image: entry (x, y) holds the sum of every level above and to the left of it,
+// so the sum over any rectangle takes four lookups whatever its size. Build it once per source image and reuse it
+// for box smoothing, high-boost and local statistics. The table of squared levels, needed for variances, is only
+// built the first time one is asked for.
+public class IntegralImage {
+    private static final int ROWS_PER_BAND = 32;
+
+    private final GrayPlane plane;
+    private final int width;
+    private final int height;
+    // (width + 1) * (height + 1) entries, with a row and a column of zeros in front
+    private final long[] sums;
+    private long[] squares;
+
+    public IntegralImage(GrayPlane plane) {
+        this.plane = plane;
+        this.width = plane.getWidth();
+        this.height = plane.getHeight();
+        this.sums = table(false);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // The plane the table was built from. Callers must not change it.
+    public GrayPlane getPlane() {
+        return plane;
+    }
+
+    // Sum of the levels in columns x0 to x1 and rows y0 to y1, ends exclusive
+    public long sum(int x0, int y0, int x1, int y1) {
+        return rectangle(sums, x0, y0, x1, y1);
+    }
+
+    // Sum of the squared levels in columns x0 to x1 and rows y0 to y1, ends exclusive
+    public long sumOfSquares(int x0, int y0, int x1, int y1) {
+        return rectangle(squares(), x0, y0, x1, y1);
+    }
+
+    // Mean of the (2 * radius + 1) square window around (x, y), over the pixels inside the image
+    public double mean(int x, int y, int radius) {
+        int x0 = Math.max(x - radius, 0);
+        int y0 = Math.max(y - radius, 0);
+        int x1 = Math.min(x + radius + 1, width);
+        int y1 = Math.min(y + radius + 1, height);
+        return (double) sum(x0, y0, x1, y1) / ((x1 - x0) * (y1 - y0));
+    }
+
+    // Variance of the same window as mean
+    public double variance(int x, int y, int radius) {
+        int x0 = Math.max(x - radius, 0);
+        int y0 = Math.max(y - radius, 0);
+        int x1 = Math.min(x + radius + 1, width);
+        int y1 = Math.min(y + radius + 1, height);
+        long count = (long) (x1 - x0) * (y1 - y0);
+        long sum = sum(x0, y0, x1, y1);
+        return (double) (count * sumOfSquares(x0, y0, x1, y1) - sum * sum) / ((double) count * count);
+    }
+
+    // Every pixel replaced by the mean of its window, rounded down like sum / count in integers. Near the edges the
+    // window only covers pixels inside the image. Bands of rows run in parallel.
+    public GrayPlane boxMeans(int radius) {
+        GrayPlane output = new GrayPlane(width, height);
+        byte[] means = output.getData();
+        int stride = width + 1;
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int start = band * ROWS_PER_BAND;
+            int end = Math.min(start + ROWS_PER_BAND, height);
+            for (int y = start; y < end; y++) {
+                int top = Math.max(y - radius, 0) * stride;
+                int bottom = Math.min(y + radius + 1, height) * stride;
+                int rows = (bottom - top) / stride;
+                for (int x = 0; x < width; x++) {
+                    int x0 = Math.max(x - radius, 0);
+                    int x1 = Math.min(x + radius + 1, width);
+                    long sum = sums[bottom + x1] - sums[top + x1] - sums[bottom + x0] + sums[top + x0];
+                    means[y * width + x] = (byte) (sum / ((x1 - x0) * rows));
+                }
+            }
+        });
+        return output;
+    }
+
+    private long rectangle(long[] table, int x0, int y0, int x1, int y1) {
+        int stride = width + 1;
+        return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0] + table[y0 * stride + x0];
+    }
+
+    private synchronized long[] squares() {
+        if (squares == null) {
+            squares = table(true);
+        }
+        return squares;
+    }
+
+    // Running sums along each row in parallel bands, then down the columns one row at a time
+    private long[] table(boolean squared) {
+        int stride = width + 1;
+        long[] table = new long[stride * (height + 1)];
+        byte[] levels = plane.getData();
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int start = band * ROWS_PER_BAND;
+            int end = Math.min(start + ROWS_PER_BAND, height);
+            for (int y = start; y < end; y++) {
+                int in = y * plane.getStride();
+                int out = (y + 1) * stride + 1;
+                long sum = 0;
+                for (int x = 0; x < width; x++) {
+                    int value = levels[in + x] & 0xFF;
+                    sum += squared ? value * value : value;
+                    table[out + x] = sum;
+                }
+            }
+        });
+        for (int y = 2; y <= height; y++) {
+            int row = y * stride;
+            int above = row - stride;
+            for (int x = 1; x < stride; x++) {
+                table[row + x] += table[above + x];
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,260 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Context-modeled adaptive binary arithmetic coding for grayscale images.
+//
+// Each pixel is predicted from its neighbors with the LOCO-I median predictor, and the residual is coded as eight
+// binary decisions down a 256-leaf tree, most significant bit first. Every tree node has its own adaptive
+// probability in each of ACTIVITY_CONTEXTS contexts, chosen from how busy the neighborhood is, so flat areas and
+// edges learn separate statistics. The bits go through an LZMA-style range coder with 11-bit probabilities.
+//
+// Bands of rows are coded independently, so they can be encoded and decoded in parallel.
+public class ArithmeticCoding {
+    private static final int ROWS_PER_BAND = 256;
+
+    private static final int PROBABILITY_BITS = 11;
+    private static final int PROBABILITY_ONE = 1 << PROBABILITY_BITS;
+    // How fast the probabilities adapt: each bit moves them 1/32 of the way towards it
+    private static final int ADAPT_SHIFT = 5;
+    private static final int TOP = 1 << 24;
+
+    // Gradient sums are quantized into contexts through a table rather than a chain of comparisons
+    private static final int ACTIVITY_CONTEXTS = 8;
+    private static final int[] ACTIVITY_BOUNDS = {1, 3, 6, 11, 21, 41, 81};
+    private static final byte[] ACTIVITY = activityTable();
+
+    public static class ArithmeticResult {
+        // The bands' range coder outputs, one after the other
+        byte[] encodedData;
+        // Where each band starts in encodedData, plus the end of the last band
+        int[] bandOffsets;
+        int width;
+        int height;
+        long encodingTime;
+        double compressionRatio;
+
+        ArithmeticResult(byte[] encodedData, int[] bandOffsets, int width, int height, long encodingTime, double compressionRatio) {
+            this.encodedData = encodedData;
+            this.bandOffsets = bandOffsets;
+            this.width = width;
+            this.height = height;
+            this.encodingTime = encodingTime;
+            this.compressionRatio = compressionRatio;
+        }
+    }
+
+    public static ArithmeticResult compress(BufferedImage image) {
+        long startTime = System.currentTimeMillis();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] pixels = RunLengthCoding.grayPixels(image);
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+
+        byte[][] encodedBands = IntStream.range(0, bands).parallel().mapToObj(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            int y1 = Math.min(y0 + ROWS_PER_BAND, height);
+            return encodeBand(pixels, width, y0, y1);
+        }).toArray(byte[][]::new);
+
+        int[] bandOffsets = new int[bands + 1];
+        for (int band = 0; band < bands; band++) {
+            bandOffsets[band + 1] = bandOffsets[band] + encodedBands[band].length;
+        }
+        byte[] encodedData = new byte[bandOffsets[bands]];
+        for (int band = 0; band < bands; band++) {
+            System.arraycopy(encodedBands[band], 0, encodedData, bandOffsets[band], encodedBands[band].length);
+        }
+
+        long endTime = System.currentTimeMillis();
+        int compressedSize = encodedData.length + bandOffsets.length * Integer.BYTES;
+        double compressionRatio = (double) width * height / compressedSize;
+        return new ArithmeticResult(encodedData, bandOffsets, width, height, endTime - startTime, compressionRatio);
+    }
+
+    public static BufferedImage decompress(ArithmeticResult result, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        if (result.bandOffsets.length != bands + 1) {
+            throw new IllegalArgumentException("Expected " + bands + " bands, got " + (result.bandOffsets.length - 1));
+        }
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            int y1 = Math.min(y0 + ROWS_PER_BAND, height);
+            RangeDecoder decoder = new RangeDecoder(result.encodedData, result.bandOffsets[band], result.bandOffsets[band + 1]);
+            codeBand(pixels, width, y0, y1, null, decoder);
+        });
+        return image;
+    }
+
+    private static byte[] encodeBand(byte[] pixels, int width, int y0, int y1) {
+        RangeEncoder encoder = new RangeEncoder(width * (y1 - y0) / 2 + 16);
+        codeBand(pixels, width, y0, y1, encoder, null);
+        return encoder.finish();
+    }
+
+    // Encodes or decodes rows y0 to y1, whichever of encoder and decoder is given. Both sides walk the pixels in
+    // the same order and see the same neighbors, which only come from rows already coded in this band.
+    private static void codeBand(byte[] pixels, int width, int y0, int y1, RangeEncoder encoder, RangeDecoder decoder) {
+        short[] probabilities = new short[ACTIVITY_CONTEXTS << 8];
+        Arrays.fill(probabilities, (short) (PROBABILITY_ONE / 2));
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            int above = row - width;
+            for (int x = 0; x < width; x++) {
+                int a, b, c, d;
+                if (y == y0) {
+                    a = x > 0 ? pixels[row + x - 1] & 0xFF : 0;
+                    b = a;
+                    c = a;
+                    d = a;
+                } else {
+                    b = pixels[above + x] & 0xFF;
+                    c = x > 0 ? pixels[above + x - 1] & 0xFF : b;
+                    d = x < width - 1 ? pixels[above + x + 1] & 0xFF : b;
+                    a = x > 0 ? pixels[row + x - 1] & 0xFF : b;
+                }
+                int prediction = PredictiveFilter.predict(PredictiveFilter.MED, a, b, c);
+                int context = ACTIVITY[Math.abs(d - b) + Math.abs(b - c) + Math.abs(c - a)] << 8;
+
+                if (encoder != null) {
+                    // Zigzag the residual so that small magnitudes of either sign get small symbols
+                    int residual = (byte) ((pixels[row + x] & 0xFF) - prediction);
+                    int symbol = residual >= 0 ? residual << 1 : (-residual << 1) - 1;
+                    int node = 1;
+                    for (int bit = 7; bit >= 0; bit--) {
+                        int value = (symbol >>> bit) & 1;
+                        encoder.encodeBit(probabilities, context | node, value);
+                        node = (node << 1) | value;
+                    }
+                } else {
+                    int node = 1;
+                    while (node < 256) {
+                        node = (node << 1) | decoder.decodeBit(probabilities, context | node);
+                    }
+                    int symbol = node & 0xFF;
+                    int residual = (symbol & 1) == 0 ? symbol >>> 1 : -((symbol + 1) >>> 1);
+                    pixels[row + x] = (byte) (prediction + residual);
+                }
+            }
+        }
+    }
+
+    private static byte[] activityTable() {
+        byte[] table = new byte[3 * 255 + 1];
+        int context = 0;
+        for (int i = 0; i < table.length; i++) {
+            while (context < ACTIVITY_BOUNDS.length && i >= ACTIVITY_BOUNDS[context]) {
+                context++;
+            }
+            table[i] = (byte) context;
+        }
+        return table;
+    }
+
+    private static class RangeEncoder {
+        private byte[] buffer;
+        private int length;
+        private long low;
+        private int range = -1;
+        // The last byte written out, held back in case a carry reaches it, and the 0xFF bytes queued after it
+        private int cache;
+        private long cacheSize = 1;
+
+        RangeEncoder(int capacity) {
+            buffer = new byte[Math.max(capacity, 16)];
+        }
+
+        void encodeBit(short[] probabilities, int index, int bit) {
+            int probability = probabilities[index];
+            int bound = (range >>> PROBABILITY_BITS) * probability;
+            if (bit == 0) {
+                range = bound;
+                probabilities[index] = (short) (probability + ((PROBABILITY_ONE - probability) >>> ADAPT_SHIFT));
+            } else {
+                low += bound & 0xFFFFFFFFL;
+                range -= bound;
+                probabilities[index] = (short) (probability - (probability >>> ADAPT_SHIFT));
+            }
+            // The probabilities never get close enough to 0 or 1 for range to drop more than a byte below TOP
+            if (Integer.compareUnsigned(range, TOP) < 0) {
+                range <<= 8;
+                shiftLow();
+            }
+        }
+
+        byte[] finish() {
+            for (int i = 0; i < 5; i++) {
+                shiftLow();
+            }
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void shiftLow() {
+            if (low < 0xFF000000L || low > 0xFFFFFFFFL) {
+                int carry = (int) (low >>> 32);
+                int value = cache;
+                do {
+                    write(value + carry);
+                    value = 0xFF;
+                } while (--cacheSize != 0);
+                cache = (int) (low >>> 24) & 0xFF;
+            }
+            cacheSize++;
+            low = (low & 0x00FFFFFFL) << 8;
+        }
+
+        private void write(int value) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = (byte) value;
+        }
+    }
+
+    private static class RangeDecoder {
+        private final byte[] data;
+        private final int end;
+        private int position;
+        private int range = -1;
+        private int code;
+
+        RangeDecoder(byte[] data, int start, int end) {
+            this.data = data;
+            this.position = start;
+            this.end = end;
+            // The encoder's first byte is always 0
+            for (int i = 0; i < 5; i++) {
+                code = (code << 8) | next();
+            }
+        }
+
+        int decodeBit(short[] probabilities, int index) {
+            int probability = probabilities[index];
+            int bound = (range >>> PROBABILITY_BITS) * probability;
+            int bit;
+            if (Integer.compareUnsigned(code, bound) < 0) {
+                range = bound;
+                probabilities[index] = (short) (probability + ((PROBABILITY_ONE - probability) >>> ADAPT_SHIFT));
+                bit = 0;
+            } else {
+                code -= bound;
+                range -= bound;
+                probabilities[index] = (short) (probability - (probability >>> ADAPT_SHIFT));
+                bit = 1;
+            }
+            if (Integer.compareUnsigned(range, TOP) < 0) {
+                range <<= 8;
+                code = (code << 8) | next();
+            }
+            return bit;
+        }
+
+        // Past the end of the band the encoder's flush would have written zeros
+        private int next() {
+            return position < end ? data[position++] & 0xFF : 0;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+public class BitReader {
+    private final byte[] data;
+    private final int end;
+    private int position;
+    // Unread bits, aligned to the top of the long
+    private long buffer;
+    private int count;
+
+    public BitReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public BitReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    // Returns the next n bits without consuming them. n can be 0 to 32; reading past the end gives zeros.
+    public int peek(int n) {
+        if (n == 0) {
+            // A shift by 64 is a shift by 0 in Java, which would return the top bits
+            return 0;
+        }
+        if (count < n) {
+            refill();
+        }
+        return (int) (buffer >>> (64 - n));
+    }
+
+    public void skip(int n) {
+        buffer <<= n;
+        count -= n;
+    }
+
+    public int read(int n) {
+        int value = peek(n);
+        skip(n);
+        return value;
+    }
+
+    private void refill() {
+        while (count <= 56) {
+            if (position < end) {
+                buffer |= (data[position++] & 0xFFL) << (56 - count);
+            }
+            count += 8;
+        }
+    }
+}
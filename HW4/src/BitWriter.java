@@ -0,0 +1,56 @@
+import java.util.Arrays;
+
+public class BitWriter {
+    private byte[] buffer;
+    private int size;
+    private long accumulator;
+    private int count;
+    private long bitLength;
+
+    public BitWriter() {
+        this(1024);
+    }
+
+    public BitWriter(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    // Writes the low n bits of value, most significant bit first. n can be 0 to 32.
+    public void write(int value, int n) {
+        accumulator = (accumulator << n) | (value & ((1L << n) - 1));
+        count += n;
+        bitLength += n;
+        if (count >= 32) {
+            // Bits above the 32 we flush have already been written, so the int cast drops them
+            count -= 32;
+            int word = (int) (accumulator >>> count);
+            ensureCapacity(4);
+            buffer[size] = (byte) (word >>> 24);
+            buffer[size + 1] = (byte) (word >>> 16);
+            buffer[size + 2] = (byte) (word >>> 8);
+            buffer[size + 3] = (byte) word;
+            size += 4;
+        }
+    }
+
+    public long bitLength() {
+        return bitLength;
+    }
+
+    // Returns the bits written so far, with the last byte padded with zeros
+    public byte[] toByteArray() {
+        int bytes = (count + 7) / 8;
+        byte[] result = Arrays.copyOf(buffer, size + bytes);
+        long bits = accumulator << (bytes * 8 - count);
+        for (int i = 0; i < bytes; i++) {
+            result[size + i] = (byte) (bits >>> ((bytes - 1 - i) * 8));
+        }
+        return result;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,404 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+
+// Runs every codec over a directory of images and reports speed, size and accuracy in one table.
+//
+//   java CodecBenchmark [directory] [--gray] [--warmup n] [--iterations n] [--codec name] [--csv file] [--json file]
+//
+// Images are compressed in their own type, or converted to 8-bit grayscale first with --gray. Speeds are in MB/s of
+// raw 8-bit planes, averaged over the measured iterations; the allocation rate counts the bytes allocated by all
+// threads while encoding and decoding.
+public class CodecBenchmark {
+
+    public static class Result {
+        String image;
+        String codec;
+        int width;
+        int height;
+        long rawBytes;
+        long compressedBytes;
+        double compressionRatio;
+        double encodeMBps;
+        double decodeMBps;
+        double allocationMBps;
+        boolean lossless;
+        double rmse;
+        double psnr;
+        double ssim;
+        // The image decoded on the last iteration
+        BufferedImage decoded;
+    }
+
+    // Every codec, each run over the planes of a ColorPlanes split so that color images work too
+    public static List<ImageCodec<?>> codecs() {
+        List<ImageCodec<?>> codecs = new ArrayList<>();
+        for (ImageCodec<?> codec : grayscaleCodecs()) {
+            codecs.add(colorCodec(codec));
+        }
+        return codecs;
+    }
+
+    private static <T> ImageCodec<?> colorCodec(ImageCodec<T> codec) {
+        return new ColorCodec<>(codec);
+    }
+
+    // Codecs for TYPE_BYTE_GRAY images
+    public static List<ImageCodec<?>> grayscaleCodecs() {
+        List<ImageCodec<?>> codecs = new ArrayList<>();
+        codecs.add(new ImageCodec<RunLengthCoding.RLCResult>() {
+            public String name() {
+                return "RLE";
+            }
+
+            public RunLengthCoding.RLCResult encode(BufferedImage image) {
+                return RunLengthCoding.compressGrayscale(image);
+            }
+
+            public long compressedSize(RunLengthCoding.RLCResult encoded) {
+                return encoded.encodedData.length + (long) encoded.rowOffsets.length * Integer.BYTES;
+            }
+
+            public BufferedImage decode(RunLengthCoding.RLCResult encoded, int width, int height) {
+                return RunLengthCoding.decompressGrayscale(encoded, width, height);
+            }
+        });
+        codecs.add(new ImageCodec<RunLengthCoding.BitPlaneRLCResult>() {
+            public String name() {
+                return "Bit-plane RLE";
+            }
+
+            public RunLengthCoding.BitPlaneRLCResult encode(BufferedImage image) {
+                return RunLengthCoding.compressBitPlanes(image);
+            }
+
+            public long compressedSize(RunLengthCoding.BitPlaneRLCResult encoded) {
+                long size = 0;
+                for (byte[] plane : encoded.encodedBitPlanes) {
+                    size += plane.length;
+                }
+                return size;
+            }
+
+            public BufferedImage decode(RunLengthCoding.BitPlaneRLCResult encoded, int width, int height) {
+                return RunLengthCoding.decompressBitPlanes(encoded, width, height);
+            }
+        });
+        codecs.add(new ImageCodec<HuffmanCoding.HuffmanResult>() {
+            public String name() {
+                return "Huffman";
+            }
+
+            public HuffmanCoding.HuffmanResult encode(BufferedImage image) {
+                int[] pixels = image.getRaster().getSamples(0, 0, image.getWidth(), image.getHeight(), 0, (int[]) null);
+                return HuffmanCoding.encode(pixels, image.getWidth(), image.getHeight());
+            }
+
+            public long compressedSize(HuffmanCoding.HuffmanResult encoded) {
+                return encoded.compressedSize;
+            }
+
+            public BufferedImage decode(HuffmanCoding.HuffmanResult encoded, int width, int height) {
+                BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+                image.getRaster().setSamples(0, 0, width, height, 0, HuffmanCoding.decode(encoded));
+                return image;
+            }
+        });
+        codecs.add(new ImageCodec<LZW.LZWResult>() {
+            public String name() {
+                return "LZW";
+            }
+
+            public LZW.LZWResult encode(BufferedImage image) {
+                return LZW.compress(image);
+            }
+
+            public long compressedSize(LZW.LZWResult encoded) {
+                long size = 0;
+                for (byte[] plane : encoded.compressedPlanes) {
+                    size += plane.length;
+                }
+                return size;
+            }
+
+            public BufferedImage decode(LZW.LZWResult encoded, int width, int height) {
+                return LZW.decompress(encoded, width, height, encoded.imageType);
+            }
+        });
+        codecs.add(new ImageCodec<ArithmeticCoding.ArithmeticResult>() {
+            public String name() {
+                return "Arithmetic";
+            }
+
+            public ArithmeticCoding.ArithmeticResult encode(BufferedImage image) {
+                return ArithmeticCoding.compress(image);
+            }
+
+            public long compressedSize(ArithmeticCoding.ArithmeticResult encoded) {
+                return encoded.encodedData.length + (long) encoded.bandOffsets.length * Integer.BYTES;
+            }
+
+            public BufferedImage decode(ArithmeticCoding.ArithmeticResult encoded, int width, int height) {
+                return ArithmeticCoding.decompress(encoded, width, height);
+            }
+        });
+        codecs.add(new ImageCodec<HuffmanCoding.HuffmanResult>() {
+            public String name() {
+                return "Predictive Huffman";
+            }
+
+            public HuffmanCoding.HuffmanResult encode(BufferedImage image) {
+                byte[] filtered = PredictiveFilter.filter(RunLengthCoding.grayPixels(image), image.getWidth(), image.getHeight());
+                int[] symbols = new int[filtered.length];
+                for (int i = 0; i < filtered.length; i++) {
+                    symbols[i] = filtered[i] & 0xFF;
+                }
+                return HuffmanCoding.encode(symbols, image.getWidth() + 1, image.getHeight());
+            }
+
+            public long compressedSize(HuffmanCoding.HuffmanResult encoded) {
+                return encoded.compressedSize;
+            }
+
+            public BufferedImage decode(HuffmanCoding.HuffmanResult encoded, int width, int height) {
+                int[] symbols = HuffmanCoding.decode(encoded);
+                byte[] filtered = new byte[symbols.length];
+                for (int i = 0; i < symbols.length; i++) {
+                    filtered[i] = (byte) symbols[i];
+                }
+                return grayImage(PredictiveFilter.unfilter(filtered, width, height), width, height);
+            }
+        });
+        codecs.add(new ImageCodec<byte[]>() {
+            public String name() {
+                return "Predictive LZW";
+            }
+
+            public byte[] encode(BufferedImage image) {
+                return LZW.compress(PredictiveFilter.filter(RunLengthCoding.grayPixels(image), image.getWidth(), image.getHeight()));
+            }
+
+            public long compressedSize(byte[] encoded) {
+                return encoded.length;
+            }
+
+            public BufferedImage decode(byte[] encoded, int width, int height) {
+                byte[] filtered = LZW.decompress(encoded, (width + 1) * height);
+                return grayImage(PredictiveFilter.unfilter(filtered, width, height), width, height);
+            }
+        });
+        return codecs;
+    }
+
+    private static BufferedImage grayImage(byte[] pixels, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setDataElements(0, 0, width, height, pixels);
+        return image;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File directory = new File(".");
+        int warmup = 3;
+        int iterations = 10;
+        String codecName = null;
+        File csvFile = null;
+        File jsonFile = null;
+        boolean gray = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--gray":
+                    gray = true;
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--codec":
+                    codecName = args[++i];
+                    break;
+                case "--csv":
+                    csvFile = new File(args[++i]);
+                    break;
+                case "--json":
+                    jsonFile = new File(args[++i]);
+                    break;
+                default:
+                    directory = new File(args[i]);
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (File file : imageFiles(directory)) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                continue;
+            }
+            if (gray) {
+                image = toGrayscale(image);
+            }
+            for (ImageCodec<?> codec : codecs()) {
+                if (codecName == null || codec.name().equalsIgnoreCase(codecName)) {
+                    Result result = run(codec, image, warmup, iterations);
+                    result.image = file.getName();
+                    results.add(result);
+                }
+            }
+        }
+
+        printTable(results);
+        if (csvFile != null) {
+            writeCsv(results, csvFile);
+        }
+        if (jsonFile != null) {
+            writeJson(results, jsonFile);
+        }
+    }
+
+    public static <T> Result run(ImageCodec<T> codec, BufferedImage image, int warmup, int iterations) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        for (int i = 0; i < warmup; i++) {
+            codec.decode(codec.encode(image), width, height);
+        }
+
+        long encodeTime = 0;
+        long decodeTime = 0;
+        long allocatedBefore = allocatedBytes();
+        T encoded = null;
+        BufferedImage decoded = null;
+        for (int i = 0; i < iterations; i++) {
+            long startTime = System.nanoTime();
+            encoded = codec.encode(image);
+            long middleTime = System.nanoTime();
+            decoded = codec.decode(encoded, width, height);
+            long endTime = System.nanoTime();
+            encodeTime += middleTime - startTime;
+            decodeTime += endTime - middleTime;
+        }
+        long allocatedAfter = allocatedBytes();
+        // Unknown if either reading is, or if threads that had allocated ended during the run
+        long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+
+        Result result = new Result();
+        result.codec = codec.name();
+        result.width = width;
+        result.height = height;
+        // Indexed, 1-bit and 16-bit images are converted before they're split into planes, so compare the decoded
+        // image against what was actually encoded
+        BufferedImage encodedImage = ColorPlanes.supportedImage(image);
+        result.rawBytes = (long) width * height * encodedImage.getRaster().getNumBands();
+        result.compressedBytes = codec.compressedSize(encoded);
+        result.compressionRatio = (double) result.rawBytes / result.compressedBytes;
+        result.encodeMBps = megabytesPerSecond(result.rawBytes * iterations, encodeTime);
+        result.decodeMBps = megabytesPerSecond(result.rawBytes * iterations, decodeTime);
+        result.allocationMBps = allocated < 0 ? -1 : megabytesPerSecond(allocated, encodeTime + decodeTime);
+        result.decoded = decoded;
+        ImageMetrics.Result metrics = ImageMetrics.compare(encodedImage, decoded);
+        result.rmse = metrics.rmse();
+        result.psnr = metrics.psnr();
+        result.ssim = metrics.ssim();
+        result.lossless = metrics.mse() == 0;
+        return result;
+    }
+
+    private static File[] imageFiles(File directory) {
+        List<String> suffixes = Arrays.asList(ImageIO.getReaderFileSuffixes());
+        File[] files = directory.listFiles(file -> {
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            return file.isFile() && dot >= 0 && suffixes.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        });
+        if (files == null) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    static BufferedImage toGrayscale(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = gray.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return gray;
+    }
+
+    // Bytes allocated so far by all live threads, or -1 if the JVM can't tell us
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanoseconds) {
+        return bytes / 1e6 / (Math.max(nanoseconds, 1) / 1e9);
+    }
+
+    private static void printTable(List<Result> results) {
+        System.out.printf("%-20s %-18s %11s %12s %12s %7s %10s %10s %10s %8s %8s %8s %7s%n",
+                "Image", "Codec", "Size", "Raw bytes", "Compressed", "Ratio", "Enc MB/s", "Dec MB/s", "Alloc MB/s", "Lossless", "RMSE", "PSNR", "SSIM");
+        for (Result r : results) {
+            System.out.printf(Locale.ROOT, "%-20s %-18s %11s %12d %12d %7.3f %10.1f %10.1f %10.1f %8s %8.3f %8.2f %7.4f%n",
+                    r.image, r.codec, r.width + "x" + r.height, r.rawBytes, r.compressedBytes, r.compressionRatio,
+                    r.encodeMBps, r.decodeMBps, r.allocationMBps, r.lossless ? "yes" : "no", r.rmse, r.psnr, r.ssim);
+        }
+    }
+
+    private static void writeCsv(List<Result> results, File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("image,codec,width,height,raw_bytes,compressed_bytes,ratio,encode_mb_s,decode_mb_s,allocation_mb_s,lossless,rmse,psnr,ssim");
+            for (Result r : results) {
+                out.printf(Locale.ROOT, "\"%s\",%s,%d,%d,%d,%d,%.4f,%.2f,%.2f,%.2f,%b,%.4f,%.4f,%.6f%n",
+                        r.image.replace("\"", "\"\""), r.codec, r.width, r.height, r.rawBytes, r.compressedBytes,
+                        r.compressionRatio, r.encodeMBps, r.decodeMBps, r.allocationMBps, r.lossless, r.rmse, r.psnr, r.ssim);
+            }
+        }
+    }
+
+    private static void writeJson(List<Result> results, File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                out.printf(Locale.ROOT, "  {\"image\": \"%s\", \"codec\": \"%s\", \"width\": %d, \"height\": %d, \"rawBytes\": %d, "
+                                + "\"compressedBytes\": %d, \"ratio\": %.4f, \"encodeMBps\": %.2f, \"decodeMBps\": %.2f, "
+                                + "\"allocationMBps\": %.2f, \"lossless\": %b, \"rmse\": %.4f, "
+                                + "\"psnr\": %s, \"ssim\": %.6f}%s%n",
+                        r.image.replace("\\", "\\\\").replace("\"", "\\\""), r.codec, r.width, r.height, r.rawBytes,
+                        r.compressedBytes, r.compressionRatio, r.encodeMBps, r.decodeMBps, r.allocationMBps, r.lossless,
+                        r.rmse, jsonNumber(r.psnr), r.ssim, i < results.size() - 1 ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+
+    // JSON has no infinity, which is the PSNR of a lossless codec
+    private static String jsonNumber(double value) {
+        return Double.isFinite(value) ? String.format(Locale.ROOT, "%.4f", value) : "null";
+    }
+}
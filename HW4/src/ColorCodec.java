@@ -0,0 +1,53 @@
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Runs a grayscale codec over each plane of a ColorPlanes split, in parallel, so that it handles color and alpha
+// too. The decoded image has the original's type.
+public class ColorCodec<T> implements ImageCodec<ColorCodec.Encoded<T>> {
+
+    public static class Encoded<T> {
+        int imageType;
+        // What the plane codec returned for each plane
+        List<T> planes;
+
+        Encoded(int imageType, List<T> planes) {
+            this.imageType = imageType;
+            this.planes = planes;
+        }
+    }
+
+    private final ImageCodec<T> planeCodec;
+
+    public ColorCodec(ImageCodec<T> planeCodec) {
+        this.planeCodec = planeCodec;
+    }
+
+    public String name() {
+        return planeCodec.name();
+    }
+
+    public Encoded<T> encode(BufferedImage image) {
+        ColorPlanes split = ColorPlanes.split(image);
+        List<T> planes = IntStream.range(0, split.planes.length).parallel()
+                .mapToObj(i -> planeCodec.encode(split.planeImage(i)))
+                .collect(Collectors.toList());
+        return new Encoded<>(split.imageType, planes);
+    }
+
+    public long compressedSize(Encoded<T> encoded) {
+        long size = 0;
+        for (T plane : encoded.planes) {
+            size += planeCodec.compressedSize(plane);
+        }
+        return size;
+    }
+
+    public BufferedImage decode(Encoded<T> encoded, int width, int height) {
+        byte[][] planes = encoded.planes.parallelStream()
+                .map(plane -> RunLengthCoding.grayPixels(planeCodec.decode(plane, width, height)))
+                .toArray(byte[][]::new);
+        return new ColorPlanes(encoded.imageType, width, height, planes).merge();
+    }
+}
@@ -0,0 +1,142 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.stream.IntStream;
+
+// Splits an image into 8-bit planes that the grayscale codecs can compress one at a time, and puts them back.
+//
+// Gray images have a single plane. Color images go through the reversible YCoCg-R transform, done mod 256 so that
+// every plane still fits in a byte, followed by an alpha plane if there is one:
+//   Co = R - B,  t = B + (Co >> 1),  Cg = G - t,  Y = t + (Cg >> 1)
+// Y carries most of the detail, while Co and Cg are usually smooth and compress well.
+//
+// Images whose samples are stored exactly (gray, RGB and ARGB types with up to 8 bits per sample) come back with
+// their original type and identical samples. Anything else is converted to TYPE_INT_ARGB, TYPE_INT_RGB or
+// TYPE_BYTE_GRAY first.
+public class ColorPlanes {
+    private static final int ROWS_PER_BAND = 64;
+    private static final ColorModel GRAY = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).getColorModel();
+
+    int imageType;
+    int width;
+    int height;
+    // Gray, or Y, Co, Cg and then alpha. A gray plane may share the image's own data array.
+    byte[][] planes;
+
+    ColorPlanes(int imageType, int width, int height, byte[][] planes) {
+        this.imageType = imageType;
+        this.width = width;
+        this.height = height;
+        this.planes = planes;
+    }
+
+    public static ColorPlanes split(BufferedImage image) {
+        image = supportedImage(image);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        int bands = raster.getNumBands();
+        if (bands == 1) {
+            return new ColorPlanes(image.getType(), width, height, new byte[][] {RunLengthCoding.grayPixels(image)});
+        }
+
+        byte[][] planes = new byte[bands][width * height];
+        int rowBands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, rowBands).parallel().forEach(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            int rows = Math.min(ROWS_PER_BAND, height - y0);
+            int[] samples = raster.getPixels(raster.getMinX(), raster.getMinY() + y0, width, rows, (int[]) null);
+            int p = y0 * width;
+            for (int i = 0; i < samples.length; i += bands, p++) {
+                int r = samples[i];
+                int g = samples[i + 1];
+                int b = samples[i + 2];
+                int co = (byte) (r - b);
+                int t = b + (co >> 1);
+                int cg = (byte) (g - t);
+                planes[0][p] = (byte) (t + (cg >> 1));
+                planes[1][p] = (byte) co;
+                planes[2][p] = (byte) cg;
+                if (bands == 4) {
+                    planes[3][p] = (byte) samples[i + 3];
+                }
+            }
+        });
+        return new ColorPlanes(image.getType(), width, height, planes);
+    }
+
+    public BufferedImage merge() {
+        BufferedImage image = new BufferedImage(width, height, imageType);
+        WritableRaster raster = image.getRaster();
+        int bands = raster.getNumBands();
+        if (bands != planes.length) {
+            throw new IllegalArgumentException("Image type " + imageType + " has " + bands + " bands, not " + planes.length);
+        }
+        if (bands == 1) {
+            raster.setDataElements(0, 0, width, height, planes[0]);
+            return image;
+        }
+
+        int rowBands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, rowBands).parallel().forEach(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            int rows = Math.min(ROWS_PER_BAND, height - y0);
+            int[] samples = new int[width * rows * bands];
+            int p = y0 * width;
+            for (int i = 0; i < samples.length; i += bands, p++) {
+                int y = planes[0][p] & 0xFF;
+                int co = planes[1][p];
+                int cg = planes[2][p];
+                int t = (y - (cg >> 1)) & 0xFF;
+                int b = (t - (co >> 1)) & 0xFF;
+                samples[i] = (b + co) & 0xFF;
+                samples[i + 1] = (cg + t) & 0xFF;
+                samples[i + 2] = b;
+                if (bands == 4) {
+                    samples[i + 3] = planes[3][p] & 0xFF;
+                }
+            }
+            raster.setPixels(0, y0, width, rows, samples);
+        });
+        return image;
+    }
+
+    // A TYPE_BYTE_GRAY image over one plane, without copying it
+    BufferedImage planeImage(int index) {
+        DataBufferByte buffer = new DataBufferByte(planes[index], width * height);
+        WritableRaster raster = Raster.createInterleavedRaster(buffer, width, height, width, 1, new int[] {0}, null);
+        return new BufferedImage(GRAY, raster, false, null);
+    }
+
+    // The image itself if its samples can be stored exactly, otherwise a copy converted to a type that can. This is
+    // what split actually encodes, so it's what a decoded image should be compared against.
+    static BufferedImage supportedImage(BufferedImage image) {
+        Raster raster = image.getRaster();
+        int bands = raster.getNumBands();
+        boolean supported = image.getType() != BufferedImage.TYPE_CUSTOM
+                && !(image.getColorModel() instanceof IndexColorModel)
+                && (bands == 1 ? image.getType() == BufferedImage.TYPE_BYTE_GRAY : bands == 3 || bands == 4);
+        for (int band = 0; supported && band < bands; band++) {
+            supported = raster.getSampleModel().getSampleSize(band) <= 8;
+        }
+        if (supported) {
+            return image;
+        }
+
+        int type;
+        if (image.getColorModel().getNumColorComponents() == 1 && !image.getColorModel().hasAlpha()) {
+            type = BufferedImage.TYPE_BYTE_GRAY;
+        } else {
+            type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g = converted.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return converted;
+    }
+}
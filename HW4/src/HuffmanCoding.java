@@ -1,121 +1,335 @@
 import java.awt.image.BufferedImage;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.IntSummaryStatistics;
+import java.util.stream.IntStream;
 
 public class HuffmanCoding {
 
-    static class HuffmanNode {
-        int data;
-        int frequency;
-        HuffmanNode left, right;
-
-        HuffmanNode(int data, int frequency) {
-            this.data = data;
-            this.frequency = frequency;
-        }
-    }
-
-    static class HuffmanComparator implements Comparator<HuffmanNode> {
-        @Override
-        public int compare(HuffmanNode node1, HuffmanNode node2) {
-            return node1.frequency - node2.frequency;
-        }
-    }
+    // Codes up to this long are decoded with a single table lookup
+    private static final int LOOKUP_BITS = 11;
+    private static final int MAX_CODE_LENGTH = 32;
+    // Codes are limited to this length, unless there are too many symbols to fit
+    private static final int LENGTH_LIMIT = 16;
+    // Inputs at least this long are counted in parallel by default
+    private static final int PARALLEL_THRESHOLD = 1 << 20;
 
     public static class HuffmanResult {
-        String encodedData;
-        HuffmanNode root;
+        byte[] encodedData;
+        // Canonical code length of each symbol, 0 if it doesn't occur. This is all the decoder needs.
+        int[] codeLengths;
         int imageWidth;
         int imageHeight;
+        int compressedSize;
         double compressionRatio;
         long encodingTime;
 
-        HuffmanResult(String encodedData, HuffmanNode root, int width, int height, double compressionRatio, long encodingTime) {
+        HuffmanResult(byte[] encodedData, int[] codeLengths, int width, int height, double compressionRatio, long encodingTime) {
             this.encodedData = encodedData;
-            this.root = root;
+            this.codeLengths = codeLengths;
             this.imageWidth = width;
             this.imageHeight = height;
+            this.compressedSize = encodedData.length + codeLengths.length;
             this.compressionRatio = compressionRatio;
             this.encodingTime = encodingTime;
         }
     }
 
     public static HuffmanResult encode(int[] imageData, int width, int height) {
+        return encode(imageData, width, height, imageData.length >= PARALLEL_THRESHOLD);
+    }
+
+    public static HuffmanResult encode(int[] imageData, int width, int height, boolean parallel) {
         long startTime = System.currentTimeMillis();
 
-        // Frequency map and priority queue setup
-        Map<Integer, Integer> frequencyMap = new HashMap<>();
-        for (int key : imageData) {
-            frequencyMap.put(key, frequencyMap.getOrDefault(key, 0) + 1);
-        }
-        PriorityQueue<HuffmanNode> queue = new PriorityQueue<>(new HuffmanComparator());
-        frequencyMap.forEach((key, value) -> queue.add(new HuffmanNode(key, value)));
+        int[] frequencies = histogram(imageData, parallel);
+        int maxSymbol = Math.max(frequencies.length - 1, 0);
 
-        // Building Huffman tree
-        while (queue.size() > 1) {
-            HuffmanNode left = queue.poll();
-            HuffmanNode right = queue.poll();
-            HuffmanNode parent = new HuffmanNode(-1, left.frequency + right.frequency);
-            parent.left = left;
-            parent.right = right;
-            queue.add(parent);
-        }
-        HuffmanNode root = queue.poll();
+        // Only the code lengths are needed; the codes themselves are canonical
+        int[] codeLengths = codeLengths(frequencies);
+        int[] codes = canonicalCodes(codeLengths);
 
         // Encoding
-        Map<Integer, String> huffmanCodes = new HashMap<>();
-        generateCodes(root, "", huffmanCodes);
-        StringBuilder encodedImage = new StringBuilder();
+        BitWriter writer = new BitWriter(imageData.length / 2);
         for (int key : imageData) {
-            encodedImage.append(huffmanCodes.get(key));
+            writer.write(codes[key], codeLengths[key]);
         }
+        byte[] encodedImage = writer.toByteArray();
 
         // Compression ratio and encoding time calculation
         long endTime = System.currentTimeMillis();
-        int originalSize = imageData.length * Integer.SIZE;
-        int compressedSize = encodedImage.length();
+        long originalSize = (long) imageData.length * bytesPerSample(maxSymbol);
+        int compressedSize = encodedImage.length + codeLengths.length;
         double compressionRatio = (double) originalSize / compressedSize;
 
-        return new HuffmanResult(encodedImage.toString(), root, width, height, compressionRatio, endTime - startTime);
+        return new HuffmanResult(encodedImage, codeLengths, width, height, compressionRatio, endTime - startTime);
     }
 
     public static int[] decode(HuffmanResult result) {
-        String encodedData = result.encodedData;
-        HuffmanNode root = result.root;
+        int[] codeLengths = result.codeLengths;
         int[] decodedData = new int[result.imageWidth * result.imageHeight];
-        int index = 0;
-        HuffmanNode current = root;
-        for (int i = 0; i < encodedData.length(); ) {
-            while (current.left != null && current.right != null) {
-                current = encodedData.charAt(i++) == '0' ? current.left : current.right;
+        if (decodedData.length == 0) {
+            return decodedData;
+        }
+
+        // Count the codes of each length, and list the symbols in canonical order
+        int[] lengthCounts = new int[MAX_CODE_LENGTH + 1];
+        int maxLength = 0;
+        for (int length : codeLengths) {
+            lengthCounts[length]++;
+            maxLength = Math.max(maxLength, length);
+        }
+        lengthCounts[0] = 0;
+        int[] offsets = new int[MAX_CODE_LENGTH + 2];
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            offsets[length + 1] = offsets[length] + lengthCounts[length];
+        }
+        int[] sortedSymbols = new int[offsets[MAX_CODE_LENGTH + 1]];
+        int[] next = Arrays.copyOf(offsets, offsets.length);
+        for (int symbol = 0; symbol < codeLengths.length; symbol++) {
+            if (codeLengths[symbol] > 0) {
+                sortedSymbols[next[codeLengths[symbol]]++] = symbol;
+            }
+        }
+
+        // Each table entry holds the symbol and the length of the code that starts with its index.
+        // Entries left at 0 are the prefixes of longer codes.
+        int tableBits = Math.min(LOOKUP_BITS, maxLength);
+        int[] table = new int[1 << tableBits];
+        int[] firstCodes = new int[MAX_CODE_LENGTH + 1];
+        int code = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            firstCodes[length] = code;
+            if (length <= tableBits) {
+                for (int i = 0; i < lengthCounts[length]; i++) {
+                    int entry = (sortedSymbols[offsets[length] + i] << 6) | length;
+                    int start = (code + i) << (tableBits - length);
+                    Arrays.fill(table, start, start + (1 << (tableBits - length)), entry);
+                }
+            }
+            code = (code + lengthCounts[length]) << 1;
+        }
+
+        BitReader reader = new BitReader(result.encodedData);
+        for (int index = 0; index < decodedData.length; index++) {
+            int entry = table[reader.peek(tableBits)];
+            if (entry != 0) {
+                reader.skip(entry & 0x3F);
+                decodedData[index] = entry >>> 6;
+            } else {
+                // Longer codes are found by comparing against the first code of each length
+                int length = tableBits + 1;
+                int bits = reader.peek(length);
+                while (bits - firstCodes[length] >= lengthCounts[length]) {
+                    if (++length > maxLength) {
+                        throw new IllegalArgumentException("Bad Huffman code at symbol " + index);
+                    }
+                    bits = reader.peek(length);
+                }
+                reader.skip(length);
+                decodedData[index] = sortedSymbols[offsets[length] + bits - firstCodes[length]];
             }
-            decodedData[index++] = current.data;
-            current = root;
         }
         return decodedData;
     }
 
-    private static void generateCodes(HuffmanNode node, String code, Map<Integer, String> huffmanCodes) {
-        if (node == null) return;
-        if (node.left == null && node.right == null) {
-            huffmanCodes.put(node.data, code);
-        } else {
-            generateCodes(node.left, code + "0", huffmanCodes);
-            generateCodes(node.right, code + "1", huffmanCodes);
+    // Counts how often each symbol occurs. With parallel set, each thread counts a slice into its own histogram
+    // and the histograms are added up at the end.
+    public static int[] histogram(int[] data, boolean parallel) {
+        if (data.length == 0) {
+            return new int[0];
         }
+        IntSummaryStatistics stats = parallel ? Arrays.stream(data).parallel().summaryStatistics() : Arrays.stream(data).summaryStatistics();
+        if (stats.getMin() < 0) {
+            throw new IllegalArgumentException("Negative symbol: " + stats.getMin());
+        }
+        int size = stats.getMax() + 1;
+        if (!parallel) {
+            int[] frequencies = new int[size];
+            for (int key : data) {
+                frequencies[key]++;
+            }
+            return frequencies;
+        }
+
+        int slices = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), data.length / size));
+        return IntStream.range(0, slices).parallel().mapToObj(slice -> {
+            int[] frequencies = new int[size];
+            int end = (int) ((long) data.length * (slice + 1) / slices);
+            for (int i = (int) ((long) data.length * slice / slices); i < end; i++) {
+                frequencies[data[i]]++;
+            }
+            return frequencies;
+        }).reduce((a, b) -> {
+            for (int i = 0; i < size; i++) {
+                a[i] += b[i];
+            }
+            return a;
+        }).get();
     }
 
-    public static BufferedImage reconstructImage(int[] decodedData, int width, int height) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int grayValue = decodedData[y * width + x];
-                int rgb = (grayValue << 16) | (grayValue << 8) | grayValue;
-                image.setRGB(x, y, rgb);
+    // Works out the Huffman code length of each symbol, limited to LENGTH_LIMIT bits
+    static int[] codeLengths(int[] frequencies) {
+        int[] codeLengths = new int[frequencies.length];
+        int n = 0;
+        for (int frequency : frequencies) {
+            if (frequency > 0) {
+                n++;
+            }
+        }
+        if (n == 0) {
+            return codeLengths;
+        }
+
+        // Sort the symbols that occur by frequency, keeping ties in symbol order
+        long[] sorted = new long[n];
+        for (int symbol = 0, i = 0; symbol < frequencies.length; symbol++) {
+            if (frequencies[symbol] > 0) {
+                sorted[i++] = ((long) frequencies[symbol] << 32) | symbol;
+            }
+        }
+        Arrays.sort(sorted);
+        long[] weights = new long[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = sorted[i] >>> 32;
+        }
+
+        // A lone symbol still needs a one bit code
+        int[] lengths = n == 1 ? new int[]{1} : buildLengths(weights);
+        int limit = Math.max(LENGTH_LIMIT, 32 - Integer.numberOfLeadingZeros(n - 1));
+        if (Arrays.stream(lengths).max().getAsInt() > limit) {
+            lengths = limitLengths(weights, limit);
+        }
+        for (int i = 0; i < n; i++) {
+            codeLengths[(int) sorted[i]] = lengths[i];
+        }
+        return codeLengths;
+    }
+
+    // The two queue Huffman construction over weights sorted in increasing order. The leaves are taken from the
+    // front of the sorted weights and the internal nodes are made in increasing order of weight, so the two
+    // smallest are always at the front of one queue or the other. Returns the depth of each leaf.
+    private static int[] buildLengths(long[] weights) {
+        int n = weights.length;
+        long[] nodeWeights = Arrays.copyOf(weights, 2 * n - 1);
+        int[] parents = new int[2 * n - 1];
+        int leaf = 0;
+        int node = n;
+        for (int next = n; next < 2 * n - 1; next++) {
+            for (int child = 0; child < 2; child++) {
+                int smallest;
+                if (leaf < n && (node == next || nodeWeights[leaf] <= nodeWeights[node])) {
+                    smallest = leaf++;
+                } else {
+                    smallest = node++;
+                }
+                nodeWeights[next] += nodeWeights[smallest];
+                parents[smallest] = next;
+            }
+        }
+
+        // Parents always come after their children, so one pass from the root gives every depth
+        int[] depths = new int[2 * n - 1];
+        for (int i = 2 * n - 3; i >= 0; i--) {
+            depths[i] = depths[parents[i]] + 1;
+        }
+        return Arrays.copyOf(depths, n);
+    }
+
+    // Optimal code lengths of at most limit bits, by package-merge. Level limit holds the leaves; each level
+    // above it holds the leaves merged with pairs ("packages") from the level below. Taking the 2n-2 cheapest
+    // items of the top level, a leaf's code length is the number of levels it gets taken from. Since the leaves
+    // are sorted, the leaves taken from a level are always the first few.
+    private static int[] limitLengths(long[] weights, int limit) {
+        int n = weights.length;
+        long[][] levelWeights = new long[limit][];
+        boolean[][] levelLeaves = new boolean[limit][];
+        levelWeights[limit - 1] = weights;
+        levelLeaves[limit - 1] = new boolean[n];
+        Arrays.fill(levelLeaves[limit - 1], true);
+        for (int level = limit - 2; level >= 0; level--) {
+            long[] below = levelWeights[level + 1];
+            int packages = below.length / 2;
+            long[] merged = new long[n + packages];
+            boolean[] leaves = new boolean[n + packages];
+            int leaf = 0;
+            int pack = 0;
+            for (int i = 0; i < merged.length; i++) {
+                if (pack == packages || (leaf < n && weights[leaf] <= below[2 * pack] + below[2 * pack + 1])) {
+                    merged[i] = weights[leaf++];
+                    leaves[i] = true;
+                } else {
+                    merged[i] = below[2 * pack] + below[2 * pack + 1];
+                    pack++;
+                }
+            }
+            levelWeights[level] = merged;
+            levelLeaves[level] = leaves;
+        }
+
+        int[] lengths = new int[n];
+        int taken = 2 * n - 2;
+        for (int level = 0; level < limit && taken > 0; level++) {
+            int leaves = 0;
+            for (int i = 0; i < taken; i++) {
+                if (levelLeaves[level][i]) {
+                    leaves++;
+                }
+            }
+            for (int i = 0; i < leaves; i++) {
+                lengths[i]++;
             }
+            taken = 2 * (taken - leaves);
+        }
+        return lengths;
+    }
+
+    // Assigns canonical codes: shorter codes first, and codes of the same length in symbol order
+    private static int[] canonicalCodes(int[] codeLengths) {
+        int[] lengthCounts = new int[MAX_CODE_LENGTH + 1];
+        for (int length : codeLengths) {
+            lengthCounts[length]++;
+        }
+        lengthCounts[0] = 0;
+        int[] nextCodes = new int[MAX_CODE_LENGTH + 1];
+        int code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            nextCodes[length] = code;
+            code = (code + lengthCounts[length]) << 1;
+        }
+        int[] codes = new int[codeLengths.length];
+        for (int symbol = 0; symbol < codeLengths.length; symbol++) {
+            if (codeLengths[symbol] > 0) {
+                codes[symbol] = nextCodes[codeLengths[symbol]]++;
+            }
+        }
+        return codes;
+    }
+
+    private static int bytesPerSample(int maxSymbol) {
+        if (maxSymbol < 0x100) {
+            return 1;
+        }
+        return maxSymbol < 0x10000 ? 2 : 4;
+    }
+
+    public static BufferedImage reconstructImage(int[] decodedData, int width, int height) {
+        return reconstructImage(decodedData, width, height, BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    // Builds an image of the given type from decoded gray levels. TYPE_BYTE_GRAY images get the levels as their
+    // samples; other types get gray pixels with each color component set to the level.
+    public static BufferedImage reconstructImage(int[] decodedData, int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        if (type == BufferedImage.TYPE_BYTE_GRAY) {
+            image.getRaster().setSamples(0, 0, width, height, 0, decodedData);
+            return image;
+        }
+        int[] rgb = new int[width * height];
+        for (int i = 0; i < rgb.length; i++) {
+            int grayValue = decodedData[i];
+            rgb[i] = 0xFF000000 | (grayValue << 16) | (grayValue << 8) | grayValue;
         }
+        image.setRGB(0, 0, width, height, rgb, 0, width);
         return image;
     }
 }
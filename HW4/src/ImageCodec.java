@@ -0,0 +1,14 @@
+import java.awt.image.BufferedImage;
+
+// A compression algorithm seen from the outside: what goes in, how big it comes out, and what comes back.
+// T is whatever the codec's encoder returns.
+public interface ImageCodec<T> {
+    String name();
+
+    T encode(BufferedImage image);
+
+    // The number of bytes needed to store the encoded image, including any tables the decoder needs
+    long compressedSize(T encoded);
+
+    BufferedImage decode(T encoded, int width, int height);
+}
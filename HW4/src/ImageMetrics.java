@@ -0,0 +1,293 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Compares two images of the same size channel by channel: MSE, RMSE, PSNR and SSIM.
+// SSIM uses the usual 11x11 Gaussian window with sigma 1.5, applied as a horizontal then a vertical pass, with the
+// image extended past its edges by repeating the border pixels. Rows are processed in parallel bands.
+public class ImageMetrics {
+    private static final int ROWS_PER_BAND = 64;
+    private static final int WINDOW_RADIUS = 5;
+    private static final double WINDOW_SIGMA = 1.5;
+    private static final float[] WINDOW = gaussianWindow();
+
+    public static class Result {
+        // One entry per channel, in raster band order. ssim is null if it wasn't asked for.
+        double[] mse;
+        double[] rmse;
+        double[] psnr;
+        double[] ssim;
+        // The largest sample value of each channel, 255 for 8-bit channels
+        int[] maxValue;
+
+        Result(int channels, boolean ssim) {
+            this.maxValue = new int[channels];
+            this.mse = new double[channels];
+            this.rmse = new double[channels];
+            this.psnr = new double[channels];
+            this.ssim = ssim ? new double[channels] : null;
+        }
+
+        // The rest are averages over all channels
+        public double mse() {
+            return average(mse);
+        }
+
+        public double rmse() {
+            return Math.sqrt(mse());
+        }
+
+        // From the MSE of each channel as a fraction of its own peak, so channels of different depths (565, 555)
+        // count alike. When every channel has the same depth this is the PSNR of the average MSE.
+        public double psnr() {
+            double normalized = 0;
+            for (int c = 0; c < mse.length; c++) {
+                normalized += mse[c] / ((double) maxValue[c] * maxValue[c]);
+            }
+            return ImageMetrics.psnr(normalized / mse.length, 1);
+        }
+
+        public double ssim() {
+            return ssim == null ? Double.NaN : average(ssim);
+        }
+    }
+
+    public static Result compare(BufferedImage original, BufferedImage processed) {
+        return compare(original, processed, true);
+    }
+
+    public static Result compare(BufferedImage original, BufferedImage processed, boolean ssim) {
+        int width = original.getWidth();
+        int height = original.getHeight();
+        if (processed.getWidth() != width || processed.getHeight() != height) {
+            throw new IllegalArgumentException("Images are different sizes");
+        }
+        Samples a = new Samples(original.getRaster());
+        Samples b = new Samples(processed.getRaster());
+        if (a.channels != b.channels) {
+            throw new IllegalArgumentException("Images have " + a.channels + " and " + b.channels + " channels");
+        }
+
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        long pixels = (long) width * height;
+        Result result = new Result(a.channels, ssim);
+        for (int c = 0; c < a.channels; c++) {
+            int channel = c;
+            int bits = original.getSampleModel().getSampleSize(channel);
+            if (processed.getSampleModel().getSampleSize(channel) != bits) {
+                throw new IllegalArgumentException("Channel " + channel + " has " + bits + " and "
+                        + processed.getSampleModel().getSampleSize(channel) + " bit samples");
+            }
+            int maxValue = (1 << bits) - 1;
+            double c1 = 0.01 * maxValue * 0.01 * maxValue;
+            double c2 = 0.03 * maxValue * 0.03 * maxValue;
+
+            long[] squaredErrors = new long[bands];
+            double[] ssimSums = new double[bands];
+            IntStream.range(0, bands).parallel().forEach(band -> {
+                int y0 = band * ROWS_PER_BAND;
+                int y1 = Math.min(y0 + ROWS_PER_BAND, height);
+                int[] rowA = new int[width];
+                int[] rowB = new int[width];
+                long sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    a.row(y, channel, rowA, 0);
+                    b.row(y, channel, rowB, 0);
+                    for (int x = 0; x < width; x++) {
+                        // Squares of 16-bit differences don't fit in an int
+                        long difference = rowA[x] - rowB[x];
+                        sum += difference * difference;
+                    }
+                }
+                squaredErrors[band] = sum;
+                if (ssim) {
+                    ssimSums[band] = ssimRows(a, b, channel, width, height, y0, y1, c1, c2);
+                }
+            });
+
+            long totalError = 0;
+            double totalSsim = 0;
+            for (int band = 0; band < bands; band++) {
+                totalError += squaredErrors[band];
+                totalSsim += ssimSums[band];
+            }
+            result.maxValue[c] = maxValue;
+            result.mse[c] = (double) totalError / pixels;
+            result.rmse[c] = Math.sqrt(result.mse[c]);
+            result.psnr[c] = psnr(result.mse[c], maxValue);
+            if (ssim) {
+                result.ssim[c] = totalSsim / pixels;
+            }
+        }
+        return result;
+    }
+
+    // The RMSE over all channels, without SSIM
+    public static double rmse(BufferedImage original, BufferedImage processed) {
+        return compare(original, processed, false).rmse();
+    }
+
+    public static double psnr(double mse, int maxValue) {
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10((double) maxValue * maxValue / mse);
+    }
+
+    // Adds up the SSIM of rows y0 to y1. The window is applied along the rows that it covers (up to WINDOW_RADIUS
+    // rows above and below the band, so bands don't depend on each other), then down the columns.
+    private static double ssimRows(Samples a, Samples b, int channel, int width, int height, int y0, int y1, double c1, double c2) {
+        int first = Math.max(y0 - WINDOW_RADIUS, 0);
+        int last = Math.min(y1 + WINDOW_RADIUS, height);
+        // x, y, x*x, y*y and x*y blurred along each row
+        float[][] sums = new float[5][(last - first) * width];
+        int[] rowA = new int[width + 2 * WINDOW_RADIUS];
+        int[] rowB = new int[width + 2 * WINDOW_RADIUS];
+        float[][] products = new float[5][width + 2 * WINDOW_RADIUS];
+        for (int y = first; y < last; y++) {
+            a.row(y, channel, rowA, WINDOW_RADIUS);
+            b.row(y, channel, rowB, WINDOW_RADIUS);
+            blurRow(rowA, rowB, width, sums, products, (y - first) * width);
+        }
+
+        double[] meanX = new double[width];
+        double[] meanY = new double[width];
+        double[] meanXX = new double[width];
+        double[] meanYY = new double[width];
+        double[] meanXY = new double[width];
+        double total = 0;
+        for (int y = y0; y < y1; y++) {
+            Arrays.fill(meanX, 0);
+            Arrays.fill(meanY, 0);
+            Arrays.fill(meanXX, 0);
+            Arrays.fill(meanYY, 0);
+            Arrays.fill(meanXY, 0);
+            for (int k = 0; k <= WINDOW_RADIUS; k++) {
+                int above = (Math.max(y + k - WINDOW_RADIUS, 0) - first) * width;
+                int below = (Math.min(y + WINDOW_RADIUS - k, height - 1) - first) * width;
+                // The center row is both rows of its pair, so it gets half the weight each time
+                double weight = k < WINDOW_RADIUS ? WINDOW[k] : WINDOW[k] / 2.0;
+                addWeighted(meanX, sums[0], above, below, weight);
+                addWeighted(meanY, sums[1], above, below, weight);
+                addWeighted(meanXX, sums[2], above, below, weight);
+                addWeighted(meanYY, sums[3], above, below, weight);
+                addWeighted(meanXY, sums[4], above, below, weight);
+            }
+            for (int x = 0; x < width; x++) {
+                double mx = meanX[x];
+                double my = meanY[x];
+                double varianceX = meanXX[x] - mx * mx;
+                double varianceY = meanYY[x] - my * my;
+                double covariance = meanXY[x] - mx * my;
+                total += (2 * mx * my + c1) * (2 * covariance + c2)
+                        / ((mx * mx + my * my + c1) * (varianceX + varianceY + c2));
+            }
+        }
+        return total;
+    }
+
+    private static void addWeighted(double[] total, float[] values, int first, int second, double weight) {
+        for (int x = 0; x < total.length; x++) {
+            total[x] += weight * ((double) values[first + x] + values[second + x]);
+        }
+    }
+
+    // Rows come in padded by WINDOW_RADIUS pixels on each side
+    private static void blurRow(int[] rowA, int[] rowB, int width, float[][] sums, float[][] products, int offset) {
+        for (int x = 0; x < rowA.length; x++) {
+            int p = rowA[x];
+            int q = rowB[x];
+            products[0][x] = p;
+            products[1][x] = q;
+            products[2][x] = (float) p * p;
+            products[3][x] = (float) q * q;
+            products[4][x] = (float) p * q;
+        }
+        // One pair of taps at a time over the whole row, so the inner loops are simple enough to vectorize.
+        // The window is symmetric, so the taps either side of the center share a multiply.
+        for (int i = 0; i < 5; i++) {
+            float[] in = products[i];
+            float[] out = sums[i];
+            float center = WINDOW[WINDOW_RADIUS];
+            for (int x = 0; x < width; x++) {
+                out[offset + x] = center * in[x + WINDOW_RADIUS];
+            }
+            for (int k = 0; k < WINDOW_RADIUS; k++) {
+                float weight = WINDOW[k];
+                int mirror = 2 * WINDOW_RADIUS - k;
+                for (int x = 0; x < width; x++) {
+                    out[offset + x] += weight * (in[x + k] + in[x + mirror]);
+                }
+            }
+        }
+    }
+
+    private static float[] gaussianWindow() {
+        float[] window = new float[2 * WINDOW_RADIUS + 1];
+        double sum = 0;
+        for (int i = 0; i < window.length; i++) {
+            int d = i - WINDOW_RADIUS;
+            window[i] = (float) Math.exp(-d * d / (2 * WINDOW_SIGMA * WINDOW_SIGMA));
+            sum += window[i];
+        }
+        for (int i = 0; i < window.length; i++) {
+            window[i] /= sum;
+        }
+        return window;
+    }
+
+    private static double average(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    // Reads one channel of a row. Byte rasters with interleaved pixels are read straight from their data array.
+    private static class Samples {
+        final Raster raster;
+        final int channels;
+        final int width;
+        byte[] data;
+        int start;
+        int pixelStride;
+        int scanlineStride;
+        int[] bandOffsets;
+
+        Samples(Raster raster) {
+            this.raster = raster;
+            this.channels = raster.getNumBands();
+            this.width = raster.getWidth();
+            if (raster.getSampleModel() instanceof PixelInterleavedSampleModel && raster.getDataBuffer() instanceof DataBufferByte) {
+                PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+                DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+                data = buffer.getData();
+                pixelStride = sampleModel.getPixelStride();
+                scanlineStride = sampleModel.getScanlineStride();
+                bandOffsets = sampleModel.getBandOffsets();
+                start = buffer.getOffset() + (raster.getMinY() - raster.getSampleModelTranslateY()) * scanlineStride
+                        + (raster.getMinX() - raster.getSampleModelTranslateX()) * pixelStride;
+            }
+        }
+
+        // Fills row[padding .. padding + width) and repeats the end samples into the padding on each side
+        void row(int y, int channel, int[] row, int padding) {
+            if (data != null) {
+                int p = start + y * scanlineStride + bandOffsets[channel];
+                for (int x = padding; x < padding + width; x++) {
+                    row[x] = data[p] & 0xFF;
+                    p += pixelStride;
+                }
+            } else {
+                // Read into the front of the row and move it along, rather than have getSamples allocate every row
+                raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, channel, row);
+                System.arraycopy(row, 0, row, padding, width);
+            }
+            for (int x = 0; x < padding; x++) {
+                row[x] = row[padding];
+                row[padding + width + x] = row[padding + width - 1];
+            }
+        }
+    }
+}
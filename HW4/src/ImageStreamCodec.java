@@ -0,0 +1,397 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Reads and writes compressed images in a small container format:
+//
+//   int    magic ("HW4C")
+//   byte   version
+//   byte   codec (RLE, LZW or HUFFMAN)
+//   int    width, height
+//   int    BufferedImage type
+//   int    bytes per pixel
+//   chunks, each:
+//     int  raw length (0 ends the stream)
+//     int  payload length
+//     payload, compressed on its own with the codec. Huffman payloads start with their code length table.
+//
+// The raw bytes are the image's pixel data elements, row after row. Chunks hold whole rows, and at most
+// CHUNK_SIZE raw bytes unless a single row is longer, so streams are encoded and decoded with bounded memory.
+public class ImageStreamCodec {
+    public static final int CHUNK_SIZE = 1 << 20;
+
+    private static final int MAGIC = 0x48573443;
+    private static final int VERSION = 1;
+    // Payloads are read in blocks of at least this size, and files are mapped in windows of this size
+    private static final int PAYLOAD_BLOCK = 1 << 16;
+    private static final long MAP_WINDOW = 1L << 26;
+
+    public enum Codec {
+        RLE, LZW, HUFFMAN
+    }
+
+    public static class Header {
+        Codec codec;
+        int width;
+        int height;
+        int imageType;
+        int bytesPerPixel;
+
+        Header(Codec codec, int width, int height, int imageType, int bytesPerPixel) {
+            this.codec = codec;
+            this.width = width;
+            this.height = height;
+            this.imageType = imageType;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        long rawSize() {
+            return (long) width * height * bytesPerPixel;
+        }
+    }
+
+    // Compresses raw pixel bytes read from in, which must hold width * height * bytesPerPixel bytes
+    public static void encode(InputStream in, Header header, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        writeHeader(data, header);
+        int rowSize = header.width * header.bytesPerPixel;
+        int rowsPerChunk = rowsPerChunk(rowSize);
+        byte[] chunk = null;
+        for (int y = 0; y < header.height; y += rowsPerChunk) {
+            int length = Math.min(rowsPerChunk, header.height - y) * rowSize;
+            if (chunk == null || chunk.length != length) {
+                chunk = new byte[length];
+            }
+            readFully(in, chunk, length);
+            writeChunk(data, header.codec, chunk);
+        }
+        data.writeInt(0);
+        data.flush();
+    }
+
+    // Compresses an image whose raster stores each pixel as bytes (TYPE_BYTE_GRAY, TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR)
+    public static void encode(BufferedImage image, Codec codec, OutputStream out) throws IOException {
+        Header header = header(image, codec);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        writeHeader(data, header);
+        WritableRaster raster = image.getRaster();
+        int rowSize = header.width * header.bytesPerPixel;
+        int rowsPerChunk = rowsPerChunk(rowSize);
+        byte[] chunk = null;
+        for (int y = 0; y < header.height; y += rowsPerChunk) {
+            int rows = Math.min(rowsPerChunk, header.height - y);
+            chunk = (byte[]) raster.getDataElements(0, y, header.width, rows, rows == rowsPerChunk ? chunk : null);
+            writeChunk(data, codec, chunk);
+        }
+        data.writeInt(0);
+        data.flush();
+    }
+
+    public static void encode(BufferedImage image, Codec codec, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            encode(image, codec, Channels.newOutputStream(channel));
+        }
+    }
+
+    // Decompresses a stream to raw pixel bytes, one chunk at a time. Returns the header.
+    public static Header decode(InputStream in, OutputStream out) throws IOException {
+        DataInputStream data = dataInput(in);
+        Header header = readHeader(data);
+        int rowSize = header.width * header.bytesPerPixel;
+        byte[] chunk = null;
+        long total = 0;
+        while (true) {
+            int length = data.readInt();
+            if (length == 0) {
+                break;
+            }
+            if (!isChunkLength(length, rowSize) || total + length > header.rawSize()) {
+                throw new IOException("Bad chunk length: " + length);
+            }
+            if (chunk == null || chunk.length != length) {
+                chunk = new byte[length];
+            }
+            readChunk(data, header.codec, chunk);
+            out.write(chunk);
+            total += length;
+        }
+        if (total != header.rawSize()) {
+            throw new IOException("Stream holds " + total + " bytes, expected " + header.rawSize());
+        }
+        out.flush();
+        return header;
+    }
+
+    public static BufferedImage decode(InputStream in) throws IOException {
+        DataInputStream data = dataInput(in);
+        Header header = readHeader(data);
+        BufferedImage image = new BufferedImage(header.width, header.height, header.imageType);
+        WritableRaster raster = image.getRaster();
+        int rowSize = header.width * header.bytesPerPixel;
+        byte[] chunk = null;
+        int y = 0;
+        while (true) {
+            int length = data.readInt();
+            if (length == 0) {
+                break;
+            }
+            if (!isChunkLength(length, rowSize) || y + length / rowSize > header.height) {
+                throw new IOException("Bad chunk length: " + length);
+            }
+            if (chunk == null || chunk.length != length) {
+                chunk = new byte[length];
+            }
+            readChunk(data, header.codec, chunk);
+            int rows = length / rowSize;
+            raster.setDataElements(0, y, header.width, rows, chunk);
+            y += rows;
+        }
+        if (y != header.height) {
+            throw new IOException("Stream holds " + y + " rows, expected " + header.height);
+        }
+        return image;
+    }
+
+    // Maps the file into memory a window at a time and reads the windows directly, with no stream buffer in between.
+    // Files of any size can be decoded.
+    public static BufferedImage decode(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return decode(new MappedInputStream(channel));
+        }
+    }
+
+    // A mapped stream already reads from memory, so only other streams get a buffer in front of them
+    private static DataInputStream dataInput(InputStream in) {
+        return new DataInputStream(in instanceof MappedInputStream ? in : new BufferedInputStream(in));
+    }
+
+    private static int rowsPerChunk(int rowSize) {
+        return Math.max(1, CHUNK_SIZE / Math.max(rowSize, 1));
+    }
+
+    private static boolean isChunkLength(int length, int rowSize) {
+        return length > 0 && rowSize > 0 && length % rowSize == 0 && length <= Math.max(CHUNK_SIZE, rowSize);
+    }
+
+    private static Header header(BufferedImage image, Codec codec) {
+        return new Header(codec, image.getWidth(), image.getHeight(), image.getType(), bytesPerPixel(image));
+    }
+
+    private static int bytesPerPixel(BufferedImage image) {
+        int bytesPerPixel = bytesPerPixel(image.getType());
+        if (bytesPerPixel == 0) {
+            throw new IllegalArgumentException("Unsupported image type: " + image.getType());
+        }
+        return bytesPerPixel;
+    }
+
+    // 0 for types the codec doesn't support
+    private static int bytesPerPixel(int imageType) {
+        switch (imageType) {
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return 1;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return 3;
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    private static void writeHeader(DataOutputStream data, Header header) throws IOException {
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(header.codec.ordinal());
+        data.writeInt(header.width);
+        data.writeInt(header.height);
+        data.writeInt(header.imageType);
+        data.writeInt(header.bytesPerPixel);
+    }
+
+    private static Header readHeader(DataInputStream data) throws IOException {
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a compressed image");
+        }
+        int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version: " + version);
+        }
+        int codec = data.readUnsignedByte();
+        if (codec >= Codec.values().length) {
+            throw new IOException("Unknown codec: " + codec);
+        }
+        Header header = new Header(Codec.values()[codec], data.readInt(), data.readInt(), data.readInt(), data.readInt());
+        int bytesPerPixel = bytesPerPixel(header.imageType);
+        if (bytesPerPixel == 0) {
+            throw new IOException("Unsupported image type: " + header.imageType);
+        }
+        if (header.bytesPerPixel != bytesPerPixel) {
+            throw new IOException("Bad bytes per pixel: " + header.bytesPerPixel);
+        }
+        // Every header comes from a BufferedImage, so its raster fits in one byte array
+        if (header.width < 1 || header.height < 1 || header.rawSize() > Integer.MAX_VALUE) {
+            throw new IOException("Bad image size");
+        }
+        return header;
+    }
+
+    private static void writeChunk(DataOutputStream data, Codec codec, byte[] chunk) throws IOException {
+        int length = chunk.length;
+        data.writeInt(length);
+        switch (codec) {
+            case RLE: {
+                byte[] packed = new byte[RunLengthCoding.maxPackedLength(length)];
+                int packedLength = RunLengthCoding.packBits(chunk, 0, length, packed, 0);
+                data.writeInt(packedLength);
+                data.write(packed, 0, packedLength);
+                break;
+            }
+            case LZW: {
+                byte[] compressed = LZW.compress(chunk);
+                data.writeInt(compressed.length);
+                data.write(compressed);
+                break;
+            }
+            case HUFFMAN: {
+                int[] symbols = new int[length];
+                for (int i = 0; i < length; i++) {
+                    symbols[i] = chunk[i] & 0xFF;
+                }
+                HuffmanCoding.HuffmanResult result = HuffmanCoding.encode(symbols, length, 1);
+                data.writeInt(2 + result.codeLengths.length + result.encodedData.length);
+                data.writeShort(result.codeLengths.length);
+                for (int codeLength : result.codeLengths) {
+                    data.writeByte(codeLength);
+                }
+                data.write(result.encodedData);
+                break;
+            }
+        }
+    }
+
+    private static void readChunk(DataInputStream data, Codec codec, byte[] chunk) throws IOException {
+        int length = chunk.length;
+        int payloadLength = data.readInt();
+        if (payloadLength < 0) {
+            throw new IOException("Bad payload length: " + payloadLength);
+        }
+        byte[] payload = readPayload(data, payloadLength);
+        try {
+            switch (codec) {
+                case RLE:
+                    RunLengthCoding.unpackBits(payload, 0, chunk, 0, length);
+                    break;
+                case LZW:
+                    System.arraycopy(LZW.decompress(payload, length), 0, chunk, 0, length);
+                    break;
+                case HUFFMAN: {
+                    int tableLength = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+                    if (tableLength > 256) {
+                        throw new IOException("Bad Huffman table length: " + tableLength);
+                    }
+                    int[] codeLengths = new int[tableLength];
+                    for (int i = 0; i < tableLength; i++) {
+                        codeLengths[i] = payload[2 + i] & 0xFF;
+                    }
+                    byte[] encoded = Arrays.copyOfRange(payload, 2 + tableLength, payload.length);
+                    int[] symbols = HuffmanCoding.decode(new HuffmanCoding.HuffmanResult(encoded, codeLengths, length, 1, 0, 0));
+                    for (int i = 0; i < length; i++) {
+                        chunk[i] = (byte) symbols[i];
+                    }
+                    break;
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt " + codec + " chunk", e);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int n = in.read(buffer, offset, length - offset);
+            if (n < 0) {
+                throw new EOFException("Expected " + length + " bytes, got " + offset);
+            }
+            offset += n;
+        }
+    }
+
+    // Reads a payload whose length came from the stream. The buffer only grows as bytes actually arrive, so a
+    // corrupt length ends in an EOFException instead of a huge allocation.
+    private static byte[] readPayload(InputStream in, int length) throws IOException {
+        byte[] payload = new byte[Math.min(length, PAYLOAD_BLOCK)];
+        int offset = 0;
+        while (offset < length) {
+            if (offset == payload.length) {
+                payload = Arrays.copyOf(payload, (int) Math.min(length, 2L * payload.length));
+            }
+            int n = in.read(payload, offset, payload.length - offset);
+            if (n < 0) {
+                throw new EOFException("Expected " + length + " payload bytes, got " + offset);
+            }
+            offset += n;
+        }
+        return payload;
+    }
+
+    // Reads a file through read-only mappings of up to MAP_WINDOW bytes, mapping the next window when one runs out
+    private static class MappedInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        MappedInputStream(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return next() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!next()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(buffer.remaining() + size - position, Integer.MAX_VALUE);
+        }
+
+        // Makes sure the buffer has bytes left, if the file does
+        private boolean next() throws IOException {
+            if (!buffer.hasRemaining() && position < size) {
+                long length = Math.min(MAP_WINDOW, size - position);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+            }
+            return buffer.hasRemaining();
+        }
+    }
+}
@@ -1,96 +1,190 @@
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LZW {
+    // Codes start at 9 bits and grow to 16, after which the dictionary is cleared (as in GIF and TIFF)
+    private static final int MIN_BITS = 9;
+    private static final int MAX_BITS = 16;
+    private static final int CLEAR_CODE = 256;
+    private static final int END_CODE = 257;
+    private static final int FIRST_CODE = 258;
+    private static final int MAX_CODES = 1 << MAX_BITS;
+
+    // The encoder's dictionary is an open addressing hash table from (prefix code, byte) to code
+    private static final int HASH_BITS = 18;
+    private static final int HASH_SIZE = 1 << HASH_BITS;
+
     public static class LZWResult {
-        List<Integer> compressedData;
+        // One LZW stream per ColorPlanes plane
+        byte[][] compressedPlanes;
+        int imageType;
+        int originalSize;
         double compressionRatio;
         double encodingTime;
 
-        LZWResult(List<Integer> compressedData, double compressionRatio, double encodingTime) {
-            this.compressedData = compressedData;
+        LZWResult(byte[][] compressedPlanes, int imageType, int originalSize, double compressionRatio, double encodingTime) {
+            this.compressedPlanes = compressedPlanes;
+            this.imageType = imageType;
+            this.originalSize = originalSize;
             this.compressionRatio = compressionRatio;
             this.encodingTime = encodingTime;
         }
     }
 
+    // Works on any image: color images are split into YCoCg-R planes, which are compressed in parallel
     public static LZWResult compress(BufferedImage image) {
         long startTime = System.currentTimeMillis();
-        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-        List<Integer> compressedData = compress(pixels);
+        ColorPlanes planes = ColorPlanes.split(image);
+        byte[][] compressedPlanes = Arrays.stream(planes.planes).parallel()
+                .map(LZW::compress)
+                .toArray(byte[][]::new);
 
         long endTime = System.currentTimeMillis();
-        double compressionRatio = (double) pixels.length / compressedData.size();
+        int originalSize = 0;
+        int compressedSize = 0;
+        for (int i = 0; i < compressedPlanes.length; i++) {
+            originalSize += planes.planes[i].length;
+            compressedSize += compressedPlanes[i].length;
+        }
+        double compressionRatio = (double) originalSize / compressedSize;
         double encodingTime = endTime - startTime;
 
-        return new LZWResult(compressedData, compressionRatio, encodingTime);
+        return new LZWResult(compressedPlanes, planes.imageType, originalSize, compressionRatio, encodingTime);
     }
 
+    // Decompresses to the given image type, which must have as many planes as the compressed image
     public static BufferedImage decompress(LZWResult result, int width, int height, int type) {
-        byte[] decompressedPixels = decompress(result.compressedData);
-        BufferedImage decompressedImage = new BufferedImage(width, height, type);
-        decompressedImage.getRaster().setDataElements(0, 0, width, height, decompressedPixels);
-        return decompressedImage;
+        byte[][] planes = Arrays.stream(result.compressedPlanes).parallel()
+                .map(plane -> decompress(plane, width * height))
+                .toArray(byte[][]::new);
+        return new ColorPlanes(type, width, height, planes).merge();
     }
 
-    public static List<Integer> compress(byte[] data) {
-        int dictSize = 256;
-        Map<String, Integer> dictionary = new HashMap<>();
-        for (int i = 0; i < 256; i++) {
-            dictionary.put("" + (char) i, i);
+    public static byte[] compress(byte[] data) {
+        int[] hashKeys = new int[HASH_SIZE];
+        int[] hashCodes = new int[HASH_SIZE];
+        Arrays.fill(hashKeys, -1);
+        int nextCode = FIRST_CODE;
+        int bits = MIN_BITS;
+
+        BitWriter writer = new BitWriter(data.length / 2);
+        if (data.length == 0) {
+            writer.write(END_CODE, bits);
+            return writer.toByteArray();
         }
 
-        String w = "";
-        List<Integer> result = new ArrayList<>();
-        for (byte b : data) {
-            String wb = w + (char) (b & 0xFF);
-            if (dictionary.containsKey(wb)) {
-                w = wb;
-            } else {
-                result.add(dictionary.get(w));
-                dictionary.put(wb, dictSize++);
-                w = "" + (char) (b & 0xFF);
+        int w = data[0] & 0xFF;
+        for (int i = 1; i < data.length; i++) {
+            int b = data[i] & 0xFF;
+            int key = (w << 8) | b;
+            int slot = (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+            while (hashKeys[slot] != -1 && hashKeys[slot] != key) {
+                slot = (slot + 1) & (HASH_SIZE - 1);
             }
+            if (hashKeys[slot] == key) {
+                w = hashCodes[slot];
+                continue;
+            }
+
+            writer.write(w, bits);
+            hashKeys[slot] = key;
+            hashCodes[slot] = nextCode++;
+            if (nextCode == 1 << bits) {
+                if (bits < MAX_BITS) {
+                    bits++;
+                } else {
+                    writer.write(CLEAR_CODE, bits);
+                    Arrays.fill(hashKeys, -1);
+                    nextCode = FIRST_CODE;
+                    bits = MIN_BITS;
+                }
+            }
+            w = b;
         }
 
-        if (!w.isEmpty()) {
-            result.add(dictionary.get(w));
+        // The decoder adds a dictionary entry for the last code too, so count it when working out the code width
+        writer.write(w, bits);
+        if (++nextCode == 1 << bits && bits < MAX_BITS) {
+            bits++;
         }
-        return result;
+        writer.write(END_CODE, bits);
+        return writer.toByteArray();
     }
 
-    public static byte[] decompress(List<Integer> compressedData) {
-        int dictSize = 256;
-        Map<Integer, String> dictionary = new HashMap<>();
+    public static byte[] decompress(byte[] compressedData, int originalSize) {
+        // Each code is the code of its string without the last byte, plus that byte
+        int[] prefixes = new int[MAX_CODES];
+        byte[] suffixes = new byte[MAX_CODES];
+        int[] lengths = new int[MAX_CODES];
         for (int i = 0; i < 256; i++) {
-            dictionary.put(i, "" + (char) i);
+            suffixes[i] = (byte) i;
+            lengths[i] = 1;
         }
 
-        String w = "" + (char) (int) compressedData.remove(0);
-        StringBuilder result = new StringBuilder(w);
-        for (int k : compressedData) {
-            String entry;
-            if (dictionary.containsKey(k)) {
-                entry = dictionary.get(k);
-            } else if (k == dictSize) {
-                entry = w + w.charAt(0);
+        byte[] result = new byte[originalSize];
+        BitReader reader = new BitReader(compressedData);
+        int position = 0;
+        int nextCode = FIRST_CODE;
+        int bits = MIN_BITS;
+        int previous = -1;
+        while (true) {
+            int code = reader.read(bits);
+            if (code == END_CODE) {
+                break;
+            }
+            if (code == CLEAR_CODE) {
+                nextCode = FIRST_CODE;
+                bits = MIN_BITS;
+                previous = -1;
+                continue;
+            }
+
+            int length;
+            if (code < nextCode && code != CLEAR_CODE && code != END_CODE) {
+                length = lengths[code];
+            } else if (code == nextCode && previous != -1) {
+                // The string isn't in the dictionary yet: it's the previous string plus its own first byte
+                length = lengths[previous] + 1;
             } else {
-                throw new IllegalArgumentException("Bad compressed k: " + k);
+                throw new IllegalArgumentException("Bad compressed code: " + code);
+            }
+            if (position + length > originalSize) {
+                throw new IllegalArgumentException("Compressed data is longer than " + originalSize + " bytes");
+            }
+
+            // Write the string backwards from its last byte by walking the prefixes
+            int c = code;
+            int end = position + length;
+            if (code == nextCode) {
+                c = previous;
+                end--;
+            }
+            for (int p = end - 1; p > position; p--) {
+                result[p] = suffixes[c];
+                c = prefixes[c];
+            }
+            result[position] = (byte) c;
+            if (code == nextCode) {
+                result[end] = result[position];
             }
 
-            result.append(entry);
-            dictionary.put(dictSize++, w + entry.charAt(0));
-            w = entry;
+            if (previous != -1 && nextCode < MAX_CODES) {
+                prefixes[nextCode] = previous;
+                suffixes[nextCode] = result[position];
+                lengths[nextCode] = lengths[previous] + 1;
+                nextCode++;
+            }
+            // The decoder is one entry behind the encoder, which has already added the entry for this code
+            if (nextCode + 1 == 1 << bits && bits < MAX_BITS) {
+                bits++;
+            }
+            previous = code;
+            position += length;
         }
 
-        byte[] decompressedData = new byte[result.length()];
-        for (int i = 0; i < result.length(); i++) {
-            decompressedData[i] = (byte) result.charAt(i);
+        if (position != originalSize) {
+            throw new IllegalArgumentException("Compressed data is " + position + " bytes, expected " + originalSize);
         }
-        return decompressedData;
+        return result;
     }
-}
\ No newline at end of file
+}
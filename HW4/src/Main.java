@@ -6,42 +6,36 @@ import java.io.File;
 import java.io.IOException;
 
 public class Main {
+    // Usage: Main [image] [codec], where codec is one of the names in CodecBenchmark.codecs().
+    // Use CodecBenchmark to compare every codec over a directory of images.
     public static void main(String[] args) {
+        String imagePath = args.length > 0 ? args[0] : "img1.jpg";
+        String codecName = args.length > 1 ? args[1] : "LZW";
         try {
             // Load the image
-//            BufferedImage originalImage = ImageIO.read(new File("Lena.jpg"));
-            BufferedImage originalImage = ImageIO.read(new File("img1.jpg"));
+            BufferedImage originalImage = ImageIO.read(new File(imagePath));
 
-            // Run length coding on the grayscale values
-//            RunLengthCoding.RLCResult rlcResult = RunLengthCoding.compressGrayscale(originalImage);
-//            System.out.println("Compression Ratio: " + rlcResult.compressionRatio);
-//            System.out.println("Encoding Time: " + rlcResult.encodingTime + "ms");
-//            BufferedImage processedImage = RunLengthCoding.decompressGrayscale(rlcResult, originalImage.getWidth(), originalImage.getHeight());
-
-            // Run length coding on the Bit planes
-//            RunLengthCoding.BitPlaneRLCResult bitPlaneRLCResult = RunLengthCoding.runLengthEncodeBitPlanes(originalImage);
-//            System.out.println("Bit Plane Compression Ratio: " + bitPlaneRLCResult.compressionRatio);
-//            System.out.println("Bit Plane Encoding Time: " + bitPlaneRLCResult.encodingTime + "ms");
-//            BufferedImage processedImage = RunLengthCoding.runLengthDecodeBitPlanes(bitPlaneRLCResult.encodedBitPlanes, originalImage.getWidth(), originalImage.getHeight());
-
-
-            // Huffman Coding
-//            int[] imagePixels = getGrayscaleArray(originalImage);
-//            HuffmanCoding.HuffmanResult result = HuffmanCoding.encode(imagePixels, originalImage.getWidth(), originalImage.getHeight());
-//            System.out.println("Huffman Compression Ratio: " + result.compressionRatio);
-//            System.out.println("Huffman Encoding Time: " + result.encodingTime + "ms");
-//            int[] decodedPixels = HuffmanCoding.decode(result);
-//            BufferedImage processedImage = HuffmanCoding.reconstructImage(decodedPixels, result.imageWidth, result.imageHeight);
+            ImageCodec<?> codec = null;
+            for (ImageCodec<?> candidate : CodecBenchmark.codecs()) {
+                if (candidate.name().equalsIgnoreCase(codecName)) {
+                    codec = candidate;
+                }
+            }
+            if (codec == null) {
+                System.out.println("Unknown codec: " + codecName);
+                return;
+            }
 
-            // LZW
-            LZW.LZWResult compressed = LZW.compress(originalImage);
-            System.out.println("Compression Ratio: " + compressed.compressionRatio);
-            System.out.println("Encoding Time: " + compressed.encodingTime + "ms");
-            BufferedImage processedImage = LZW.decompress(compressed, originalImage.getWidth(), originalImage.getHeight(), originalImage.getType());
+            CodecBenchmark.Result result = CodecBenchmark.run(codec, originalImage, 0, 1);
+            System.out.println(result.codec + " Compressed Size: " + result.compressedBytes + " bytes");
+            System.out.println("Compression Ratio: " + result.compressionRatio);
+            System.out.println("Encoding Speed: " + result.encodeMBps + " MB/s");
+            System.out.println("Decoding Speed: " + result.decodeMBps + " MB/s");
+            System.out.println("Root Mean Square Error: " + result.rmse);
+            System.out.println("PSNR: " + result.psnr + " dB");
+            System.out.println("SSIM: " + result.ssim);
 
-            // Print RMSE
-            double rmse = RunLengthCoding.calculateRMSE(originalImage, processedImage);
-            System.out.println("Root Mean Square Error: " + rmse);
+            BufferedImage processedImage = result.decoded;
 
             // Save the processed image
             saveImage(processedImage, "output.jpg");
@@ -53,17 +47,22 @@ public class Main {
         }
     }
 
+    // Gray levels of the image, row after row. Gray images give their own samples; color images are converted
+    // with the usual luma weights (0.299 R + 0.587 G + 0.114 B).
     public static int[] getGrayscaleArray(BufferedImage image) {
         int width = image.getWidth();
         int height = image.getHeight();
-        int[] grayscale = new int[width * height];
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image.getRaster().getSamples(0, 0, width, height, 0, (int[]) null);
+        }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = image.getRGB(x, y);
-                int gray = (rgb & 0xFF); // Extracting the blue component as gray for grayscale image
-                grayscale[y * width + x] = gray;
-            }
+        int[] grayscale = image.getRGB(0, 0, width, height, null, 0, width);
+        for (int i = 0; i < grayscale.length; i++) {
+            int rgb = grayscale[i];
+            int red = (rgb >> 16) & 0xFF;
+            int green = (rgb >> 8) & 0xFF;
+            int blue = rgb & 0xFF;
+            grayscale[i] = (299 * red + 587 * green + 114 * blue + 500) / 1000;
         }
         return grayscale;
     }
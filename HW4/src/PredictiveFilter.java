@@ -0,0 +1,142 @@
+import java.util.stream.IntStream;
+
+// A reversible prediction step to run before Huffman or LZW coding, as in PNG filtering and LOCO-I.
+// Each row of 8-bit samples becomes a predictor byte followed by every sample minus its prediction, mod 256.
+// On smooth images the residuals cluster around 0, which the entropy coders compress much better than raw levels.
+//
+// The predictor for each row is the one whose residuals have the smallest sum of absolute values. With a the
+// sample to the left, b the one above and c the one above-left (0 outside the image), the predictors are:
+//   NONE     0
+//   LEFT     a
+//   UP       b
+//   AVERAGE  (a + b) / 2
+//   PAETH    whichever of a, b, c is closest to a + b - c
+//   MED      the median of a, b and a + b - c (the LOCO-I / JPEG-LS predictor)
+public class PredictiveFilter {
+    public static final int NONE = 0;
+    public static final int LEFT = 1;
+    public static final int UP = 2;
+    public static final int AVERAGE = 3;
+    public static final int PAETH = 4;
+    public static final int MED = 5;
+
+    private static final int PREDICTORS = 6;
+    private static final int ROWS_PER_BAND = 64;
+
+    // Rows only depend on the original image, so bands of rows are filtered in parallel
+    public static byte[] filter(byte[] pixels, int width, int height) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " pixels, got " + pixels.length);
+        }
+        byte[] filtered = new byte[(width + 1) * height];
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            int y1 = Math.min(y0 + ROWS_PER_BAND, height);
+            long[] costs = new long[PREDICTORS];
+            for (int y = y0; y < y1; y++) {
+                filterRow(pixels, y * width, y > 0 ? (y - 1) * width : -1, width, filtered, y * (width + 1), costs);
+            }
+        });
+        return filtered;
+    }
+
+    // Each row depends on the one decoded before it, so this runs one row at a time
+    public static byte[] unfilter(byte[] filtered, int width, int height) {
+        if (filtered.length != (width + 1) * height) {
+            throw new IllegalArgumentException("Expected " + (width + 1) * height + " filtered bytes, got " + filtered.length);
+        }
+        byte[] pixels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            int in = y * (width + 1);
+            int predictor = filtered[in++];
+            if (predictor < 0 || predictor >= PREDICTORS) {
+                throw new IllegalArgumentException("Bad predictor " + predictor + " on row " + y);
+            }
+            int row = y * width;
+            int above = row - width;
+            int a = 0;
+            int c = 0;
+            for (int x = 0; x < width; x++) {
+                int b = y > 0 ? pixels[above + x] & 0xFF : 0;
+                a = (filtered[in + x] + predict(predictor, a, b, c)) & 0xFF;
+                pixels[row + x] = (byte) a;
+                c = b;
+            }
+        }
+        return pixels;
+    }
+
+    private static void filterRow(byte[] pixels, int row, int above, int width, byte[] filtered, int out, long[] costs) {
+        // Cost of every predictor in one pass, then residuals for the cheapest
+        long none = 0, left = 0, up = 0, average = 0, paeth = 0, med = 0;
+        int a = 0;
+        int c = 0;
+        for (int x = 0; x < width; x++) {
+            int value = pixels[row + x] & 0xFF;
+            int b = above >= 0 ? pixels[above + x] & 0xFF : 0;
+            none += Math.abs((byte) value);
+            left += Math.abs((byte) (value - a));
+            up += Math.abs((byte) (value - b));
+            average += Math.abs((byte) (value - ((a + b) >> 1)));
+            paeth += Math.abs((byte) (value - predict(PAETH, a, b, c)));
+            med += Math.abs((byte) (value - predict(MED, a, b, c)));
+            a = value;
+            c = b;
+        }
+        costs[NONE] = none;
+        costs[LEFT] = left;
+        costs[UP] = up;
+        costs[AVERAGE] = average;
+        costs[PAETH] = paeth;
+        costs[MED] = med;
+        int best = NONE;
+        for (int predictor = 1; predictor < PREDICTORS; predictor++) {
+            if (costs[predictor] < costs[best]) {
+                best = predictor;
+            }
+        }
+
+        filtered[out++] = (byte) best;
+        a = 0;
+        c = 0;
+        for (int x = 0; x < width; x++) {
+            int value = pixels[row + x] & 0xFF;
+            int b = above >= 0 ? pixels[above + x] & 0xFF : 0;
+            filtered[out + x] = (byte) (value - predict(best, a, b, c));
+            a = value;
+            c = b;
+        }
+    }
+
+    static int predict(int predictor, int a, int b, int c) {
+        switch (predictor) {
+            case LEFT:
+                return a;
+            case UP:
+                return b;
+            case AVERAGE:
+                return (a + b) >> 1;
+            case PAETH: {
+                int p = a + b - c;
+                int pa = Math.abs(p - a);
+                int pb = Math.abs(p - b);
+                int pc = Math.abs(p - c);
+                if (pa <= pb && pa <= pc) {
+                    return a;
+                }
+                return pb <= pc ? b : c;
+            }
+            case MED:
+                if (c >= Math.max(a, b)) {
+                    return Math.min(a, b);
+                }
+                if (c <= Math.min(a, b)) {
+                    return Math.max(a, b);
+                }
+                return a + b - c;
+            default:
+                return 0;
+        }
+    }
+}
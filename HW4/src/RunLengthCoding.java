@@ -1,33 +1,47 @@
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBufferByte;
-import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.List;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 public class RunLengthCoding {
 
     private static final int BIT_DEPTH = 8;
+    private static final int ROWS_PER_BAND = 64;
 
     public static class RLCResult {
-        List<Integer> encodedData;
+        // Each row packed on its own with packBits, one after the other
+        byte[] encodedData;
+        // Where each row starts in encodedData, plus the end of the last row
+        int[] rowOffsets;
+        int width;
+        int height;
         long encodingTime;
         double compressionRatio;
 
-        RLCResult(List<Integer> encodedData, long encodingTime, double compressionRatio) {
+        RLCResult(byte[] encodedData, int[] rowOffsets, int width, int height, long encodingTime, double compressionRatio) {
             this.encodedData = encodedData;
+            this.rowOffsets = rowOffsets;
+            this.width = width;
+            this.height = height;
             this.encodingTime = encodingTime;
             this.compressionRatio = compressionRatio;
         }
     }
 
     public static class BitPlaneRLCResult {
-        List<BitSet> encodedBitPlanes;
+        // One bit stream per plane, least significant plane first
+        byte[][] encodedBitPlanes;
+        int width;
+        int height;
         long encodingTime;
         double compressionRatio;
 
-        BitPlaneRLCResult(List<BitSet> encodedBitPlanes, long encodingTime, double compressionRatio) {
+        BitPlaneRLCResult(byte[][] encodedBitPlanes, int width, int height, long encodingTime, double compressionRatio) {
             this.encodedBitPlanes = encodedBitPlanes;
+            this.width = width;
+            this.height = height;
             this.encodingTime = encodingTime;
             this.compressionRatio = compressionRatio;
         }
@@ -35,196 +49,381 @@ public class RunLengthCoding {
 
     public static RLCResult compressGrayscale(BufferedImage image) {
         long startTime = System.currentTimeMillis();
-        ArrayList<Integer> encodedData = new ArrayList<>();
         int width = image.getWidth();
         int height = image.getHeight();
         int imageSize = width * height;
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        int[] rowOffsets = new int[height + 1];
+
+        // Pack bands of rows in parallel, each into its own buffer, keeping each row's packed length
+        byte[][] packedBands = IntStream.range(0, bands).parallel().mapToObj(band -> {
+            int y0 = band * ROWS_PER_BAND;
+            int y1 = Math.min(y0 + ROWS_PER_BAND, height);
+            byte[] packed = new byte[maxPackedLength(width) * (y1 - y0)];
+            GrayRows rows = new GrayRows(image, y0, y1);
+            int length = 0;
+            for (int y = y0; y < y1; y++) {
+                int rowLength = packBits(rows.data, rows.offset(y), width, packed, length);
+                rowOffsets[y + 1] = rowLength;
+                length += rowLength;
+            }
+            return Arrays.copyOf(packed, length);
+        }).toArray(byte[][]::new);
 
         for (int y = 0; y < height; y++) {
-            int count = 1;
-            int currentPixel = new Color(image.getRGB(0, y)).getRed();
-            for (int x = 1; x < width; x++) {
-                int pixel = new Color(image.getRGB(x, y)).getRed();
-                if (pixel == currentPixel) {
-                    count++;
-                } else {
-                    encodedData.add(currentPixel);
-                    encodedData.add(count);
-                    currentPixel = pixel;
-                    count = 1;
-                }
-            }
-            encodedData.add(currentPixel);
-            encodedData.add(count);
+            rowOffsets[y + 1] += rowOffsets[y];
+        }
+        byte[] encodedData = new byte[rowOffsets[height]];
+        for (int band = 0; band < bands; band++) {
+            System.arraycopy(packedBands[band], 0, encodedData, rowOffsets[band * ROWS_PER_BAND], packedBands[band].length);
         }
 
         long endTime = System.currentTimeMillis();
-        int compressedSizeInBytes = encodedData.size();
+        int compressedSizeInBytes = encodedData.length + rowOffsets.length * Integer.BYTES;
         double compressionRatio = (double) imageSize / compressedSizeInBytes;
 
-        return new RLCResult(encodedData, endTime - startTime, compressionRatio);
+        return new RLCResult(encodedData, rowOffsets, width, height, endTime - startTime, compressionRatio);
     }
 
     public static BufferedImage decompressGrayscale(RLCResult rlcResult, int width, int height) {
+        if (width != rlcResult.width || height != rlcResult.height) {
+            throw new IllegalArgumentException("Image is " + rlcResult.width + "x" + rlcResult.height);
+        }
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-        int x = 0, y = 0;
-
-        for (int i = 0; i < rlcResult.encodedData.size(); i += 2) {
-            int value = rlcResult.encodedData.get(i);
-            int count = rlcResult.encodedData.get(i + 1);
-            for (int j = 0; j < count; j++) {
-                image.setRGB(x, y, new Color(value, value, value).getRGB());
-                x++;
-                if (x >= width) {
-                    x = 0;
-                    y++;
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        IntStream.range(0, (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND).parallel().forEach(band -> {
+            int y1 = Math.min((band + 1) * ROWS_PER_BAND, height);
+            for (int y = band * ROWS_PER_BAND; y < y1; y++) {
+                unpackBits(rlcResult.encodedData, rlcResult.rowOffsets[y], pixels, y * width, width);
+            }
+        });
+        return image;
+    }
+
+    // Decodes a single row, using the row index to find it
+    public static byte[] decompressRow(RLCResult rlcResult, int y, byte[] row) {
+        if (row == null) {
+            row = new byte[rlcResult.width];
+        }
+        unpackBits(rlcResult.encodedData, rlcResult.rowOffsets[y], row, 0, rlcResult.width);
+        return row;
+    }
+
+    // Gray values for a band of rows. TYPE_BYTE_GRAY rasters are read in place; anything else takes the red
+    // channel of each pixel.
+    private static class GrayRows {
+        byte[] data;
+        int start;
+        int stride;
+
+        GrayRows(BufferedImage image, int y0, int y1) {
+            WritableRaster raster = image.getRaster();
+            if (image.getType() == BufferedImage.TYPE_BYTE_GRAY && raster.getDataBuffer() instanceof DataBufferByte) {
+                ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+                data = buffer.getData();
+                stride = sampleModel.getScanlineStride();
+                start = buffer.getOffset() + sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            } else {
+                int width = image.getWidth();
+                int[] rgb = image.getRGB(0, y0, width, y1 - y0, null, 0, width);
+                data = new byte[rgb.length];
+                for (int i = 0; i < rgb.length; i++) {
+                    data[i] = (byte) (rgb[i] >> 16);
                 }
+                stride = width;
+                start = -y0 * width;
             }
         }
 
-        return image;
+        int offset(int y) {
+            return start + y * stride;
+        }
     }
 
     public static BitPlaneRLCResult compressBitPlanes(BufferedImage image) {
         long startTime = System.currentTimeMillis();
-        List<BitSet> bitPlanes = extractBitPlanes(image);
-        List<BitSet> encodedBitPlanes = new ArrayList<>(BIT_DEPTH);
         int width = image.getWidth();
         int height = image.getHeight();
-        int totalEncodedBits = 0;
-
-        for (BitSet plane : bitPlanes) {
-            BitSet encodedPlane = encodeBitSet(plane, width * height);
-            encodedBitPlanes.add(encodedPlane);
-            totalEncodedBits += encodedPlane.length();
-        }
+        int size = width * height;
+        long[][] bitPlanes = extractBitPlanes(grayPixels(image), size);
+        byte[][] encodedBitPlanes = IntStream.range(0, BIT_DEPTH).parallel()
+                .mapToObj(bit -> encodePlane(bitPlanes[bit], size))
+                .toArray(byte[][]::new);
 
         long endTime = System.currentTimeMillis();
-        double compressionRatio = (double) (width * height * BIT_DEPTH) / totalEncodedBits;
+        long totalEncodedBytes = 0;
+        for (byte[] plane : encodedBitPlanes) {
+            totalEncodedBytes += plane.length;
+        }
+        double compressionRatio = (double) size / totalEncodedBytes;
 
-        return new BitPlaneRLCResult(encodedBitPlanes, endTime - startTime, compressionRatio);
+        return new BitPlaneRLCResult(encodedBitPlanes, width, height, endTime - startTime, compressionRatio);
     }
 
     public static BufferedImage decompressBitPlanes(BitPlaneRLCResult result, int width, int height) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-        int[][] pixels = new int[height][width];
-
-        for (int bit = 0; bit < BIT_DEPTH; bit++) {
-            BitSet decodedPlane = decodeBitSet(result.encodedBitPlanes.get(bit));
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    if (decodedPlane.get(y * width + x)) {
-                        pixels[y][x] |= 1 << bit;
-                    }
-                }
-            }
-        }
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int value = pixels[y][x];
-                image.setRGB(x, y, new Color(value, value, value).getRGB());
-            }
+        if (width != result.width || height != result.height) {
+            throw new IllegalArgumentException("Image is " + result.width + "x" + result.height);
         }
-
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int size = width * height;
+        long[][] bitPlanes = IntStream.range(0, BIT_DEPTH).parallel()
+                .mapToObj(bit -> decodePlane(result.encodedBitPlanes[bit], size))
+                .toArray(long[][]::new);
+        combineBitPlanes(bitPlanes, pixels, size);
         return image;
     }
 
-    private static List<BitSet> extractBitPlanes(BufferedImage image) {
+    // Gray values of the whole image, row after row. A TYPE_BYTE_GRAY raster without padding is used in place.
+    static byte[] grayPixels(BufferedImage image) {
         int width = image.getWidth();
         int height = image.getHeight();
-        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-
-        List<BitSet> bitPlanes = new ArrayList<>();
-        for (int i = 0; i < BIT_DEPTH; i++) {
-            bitPlanes.add(new BitSet(width * height));
+        GrayRows rows = new GrayRows(image, 0, height);
+        if (rows.start == 0 && rows.stride == width) {
+            return rows.data;
         }
-
+        byte[] pixels = new byte[width * height];
         for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = pixels[y * width + x] & 0xFF;
-                for (int bit = 0; bit < BIT_DEPTH; bit++) {
-                    if ((pixel & (1 << bit)) != 0) {
-                        bitPlanes.get(bit).set(y * width + x);
+            System.arraycopy(rows.data, rows.offset(y), pixels, y * width, width);
+        }
+        return pixels;
+    }
+
+    // Transposes a long as an 8x8 bit matrix, so that bit b of byte i becomes bit i of byte b. For eight pixels
+    // this turns eight gray bytes into one byte per bit plane, and back again.
+    private static long transpose8(long x) {
+        long t = (x ^ (x >>> 7)) & 0x00AA00AA00AA00AAL;
+        x = x ^ t ^ (t << 7);
+        t = (x ^ (x >>> 14)) & 0x0000CCCC0000CCCCL;
+        x = x ^ t ^ (t << 14);
+        t = (x ^ (x >>> 28)) & 0x00000000F0F0F0F0L;
+        return x ^ t ^ (t << 28);
+    }
+
+    // Splits the pixels into bit planes laid out like BitSet.toLongArray(): pixel i is bit i % 64 of word i / 64
+    private static long[][] extractBitPlanes(byte[] pixels, int size) {
+        int words = (size + 63) / 64;
+        long[][] bitPlanes = new long[BIT_DEPTH][words];
+        IntStream.range(0, (words + 1023) / 1024).parallel().forEach(block -> {
+            int end = Math.min((block + 1) * 1024, words);
+            for (int word = block * 1024; word < end; word++) {
+                int base = word * 64;
+                if (base + 64 <= size) {
+                    for (int group = 0; group < 8; group++) {
+                        long bytes = 0;
+                        int i = base + group * 8;
+                        for (int j = 7; j >= 0; j--) {
+                            bytes = (bytes << 8) | (pixels[i + j] & 0xFF);
+                        }
+                        bytes = transpose8(bytes);
+                        for (int bit = 0; bit < BIT_DEPTH; bit++) {
+                            bitPlanes[bit][word] |= ((bytes >>> (bit * 8)) & 0xFF) << (group * 8);
+                        }
+                    }
+                } else {
+                    for (int i = base; i < size; i++) {
+                        int pixel = pixels[i] & 0xFF;
+                        for (int bit = 0; bit < BIT_DEPTH; bit++) {
+                            bitPlanes[bit][word] |= (long) ((pixel >> bit) & 1) << (i - base);
+                        }
                     }
                 }
             }
-        }
-
+        });
         return bitPlanes;
     }
 
-    private static BitSet encodeBitSet(BitSet bitSet, int size) {
-        BitSet encoded = new BitSet();
-        boolean lastBit = false;
-        int count = 0;
-        int encodedIndex = 0;
+    private static void combineBitPlanes(long[][] bitPlanes, byte[] pixels, int size) {
+        int words = (size + 63) / 64;
+        IntStream.range(0, (words + 1023) / 1024).parallel().forEach(block -> {
+            int end = Math.min((block + 1) * 1024, words);
+            for (int word = block * 1024; word < end; word++) {
+                int base = word * 64;
+                int groups = Math.min(8, (size - base + 7) / 8);
+                for (int group = 0; group < groups; group++) {
+                    long bytes = 0;
+                    for (int bit = 0; bit < BIT_DEPTH; bit++) {
+                        bytes |= ((bitPlanes[bit][word] >>> (group * 8)) & 0xFF) << (bit * 8);
+                    }
+                    bytes = transpose8(bytes);
+                    int i = base + group * 8;
+                    int n = Math.min(8, size - i);
+                    for (int j = 0; j < n; j++) {
+                        pixels[i + j] = (byte) (bytes >>> (j * 8));
+                    }
+                }
+            }
+        });
+    }
 
-        for (int i = 0; i < size; i++) {
-            boolean currentBit = bitSet.get(i);
-            if (currentBit == lastBit) {
-                count++;
-            } else {
-                encodedIndex = writeCountToBitSet(encoded, count, encodedIndex);
-                count = 1;
-                lastBit = currentBit;
+    // A plane is written as a mode bit, then either its bits as they are, or the value of its first bit followed
+    // by the length of each run as an Elias gamma code. Runs are found a word at a time: the bits that differ
+    // from the bit before them mark the start of each run.
+    private static byte[] encodePlane(long[] words, int size) {
+        // Counting the runs first is cheap. Unless they average more than three pixels, gamma codes will almost
+        // never beat the raw bits.
+        long first = words.length == 0 ? 0 : words[0] & 1;
+        long runs = 1;
+        long carry = first;
+        for (long w : words) {
+            runs += Long.bitCount(w ^ ((w << 1) | carry));
+            carry = w >>> 63;
+        }
+        if (3 * runs < size) {
+            BitWriter writer = new BitWriter((int) Math.min(runs, size / 8));
+            writer.write(0, 1);
+            writer.write((int) first, 1);
+            carry = first;
+            int runStart = 0;
+            for (int word = 0; word < words.length && writer.bitLength() <= 1 + (long) size; word++) {
+                long w = words[word];
+                long changes = w ^ ((w << 1) | carry);
+                carry = w >>> 63;
+                while (changes != 0) {
+                    int i = word * 64 + Long.numberOfTrailingZeros(changes);
+                    if (i >= size) {
+                        break;
+                    }
+                    writeGamma(writer, i - runStart);
+                    runStart = i;
+                    changes &= changes - 1;
+                }
+            }
+            writeGamma(writer, size - runStart);
+            if (writer.bitLength() <= 1 + (long) size) {
+                return writer.toByteArray();
             }
         }
-        writeCountToBitSet(encoded, count, encodedIndex);
 
-        return encoded;
+        // Noisy planes are smaller left as they are
+        BitWriter writer = new BitWriter(words.length * 8 + 1);
+        writer.write(1, 1);
+        for (int i = 0; i < size; i += 32) {
+            int n = Math.min(32, size - i);
+            int bits = (int) (words[i >>> 6] >>> (i & 63));
+            writer.write(Integer.reverse(bits) >>> (32 - n), n);
+        }
+        return writer.toByteArray();
     }
 
-    private static BitSet decodeBitSet(BitSet encoded) {
-        BitSet decoded = new BitSet();
-        int decodedIndex = 0;
-        boolean currentBit = false;
-
-        for (int i = 0; encoded.nextSetBit(i) >= 0; i = encoded.nextClearBit(i + 1)) {
-            int count = readCountFromBitSet(encoded, i);
-            if (currentBit) {
-                decoded.set(decodedIndex, decodedIndex + count);
+    private static long[] decodePlane(byte[] encoded, int size) {
+        long[] words = new long[(size + 63) / 64];
+        BitReader reader = new BitReader(encoded);
+        if (reader.read(1) == 1) {
+            for (int i = 0; i < size; i += 32) {
+                int n = Math.min(32, size - i);
+                int bits = Integer.reverse(reader.read(n) << (32 - n));
+                words[i >>> 6] |= (bits & 0xFFFFFFFFL) << (i & 63);
             }
-            decodedIndex += count;
-            currentBit = !currentBit;
+            return words;
         }
 
-        return decoded;
+        boolean bit = reader.read(1) == 1;
+        int position = 0;
+        while (position < size) {
+            int run = readGamma(reader);
+            if (run > size - position) {
+                throw new IllegalArgumentException("Run overruns the plane at " + position);
+            }
+            if (bit) {
+                setBits(words, position, position + run);
+            }
+            position += run;
+            bit = !bit;
+        }
+        return words;
     }
 
-    private static int writeCountToBitSet(BitSet encoded, int count, int startIndex) {
-        for (int i = 0; i < Integer.SIZE; i++) {
-            if ((count & (1 << i)) != 0) {
-                encoded.set(startIndex + i);
-            }
+    private static void setBits(long[] words, int from, int to) {
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            words[first] |= firstMask & lastMask;
+            return;
         }
-        return startIndex + Integer.SIZE;
+        words[first] |= firstMask;
+        for (int i = first + 1; i < last; i++) {
+            words[i] = -1L;
+        }
+        words[last] |= lastMask;
     }
 
-    private static int readCountFromBitSet(BitSet encoded, int startIndex) {
-        int count = 0;
-        for (int i = 0; i < Integer.SIZE; i++) {
-            if (encoded.get(startIndex + i)) {
-                count |= 1 << i;
-            }
+    private static void writeGamma(BitWriter writer, int n) {
+        int zeros = 31 - Integer.numberOfLeadingZeros(n);
+        writer.write(0, zeros);
+        writer.write(n, zeros + 1);
+    }
+
+    private static int readGamma(BitReader reader) {
+        int zeros = Integer.numberOfLeadingZeros(reader.peek(32));
+        if (zeros > 30) {
+            throw new IllegalArgumentException("Bad run length");
         }
-        return count;
+        reader.skip(zeros);
+        return reader.read(zeros + 1);
     }
 
-    public static double calculateRMSE(BufferedImage original, BufferedImage compressed) {
-        double mse = 0;
-        int width = original.getWidth();
-        int height = original.getHeight();
+    // The largest number of bytes packBits can write for length input bytes
+    public static int maxPackedLength(int length) {
+        return length + (length + 127) / 128;
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int originalPixel = new Color(original.getRGB(x, y)).getRed();
-                int compressedPixel = new Color(compressed.getRGB(x, y)).getRed();
-                mse += Math.pow(originalPixel - compressedPixel, 2);
+    // PackBits: a header byte n of 0 to 127 is followed by n + 1 literal bytes, and -1 to -127 by one byte
+    // repeated 1 - n times. Returns the number of bytes written to dst.
+    public static int packBits(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        int i = offset;
+        int end = offset + length;
+        int o = dstOffset;
+        while (i < end) {
+            int run = 1;
+            while (i + run < end && run < 128 && src[i + run] == src[i]) {
+                run++;
+            }
+            if (run >= 3) {
+                dst[o++] = (byte) (1 - run);
+                dst[o++] = src[i];
+                i += run;
+            } else {
+                // Collect literals until the next run of three or more
+                int start = i;
+                int count = 0;
+                while (i < end && count < 128 && !(i + 2 < end && src[i] == src[i + 1] && src[i] == src[i + 2])) {
+                    i++;
+                    count++;
+                }
+                dst[o++] = (byte) (count - 1);
+                System.arraycopy(src, start, dst, o, count);
+                o += count;
             }
         }
+        return o - dstOffset;
+    }
 
-        mse /= (width * height);
-        return Math.sqrt(mse);
+    // Unpacks exactly length bytes into dst. Returns the number of packed bytes read from src.
+    public static int unpackBits(byte[] src, int srcOffset, byte[] dst, int dstOffset, int length) {
+        int i = srcOffset;
+        int o = dstOffset;
+        int end = dstOffset + length;
+        while (o < end) {
+            int n = src[i++];
+            if (n >= 0) {
+                if (o + n + 1 > end) {
+                    throw new IllegalArgumentException("Packed data overruns " + length + " bytes");
+                }
+                System.arraycopy(src, i, dst, o, n + 1);
+                i += n + 1;
+                o += n + 1;
+            } else if (n != -128) {
+                if (o + 1 - n > end) {
+                    throw new IllegalArgumentException("Packed data overruns " + length + " bytes");
+                }
+                Arrays.fill(dst, o, o + 1 - n, src[i++]);
+                o += 1 - n;
+            }
+        }
+        return i - srcOffset;
     }
 }